@@ -0,0 +1,74 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.security.KeyStore.PasswordProtection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.europa.esig.dss.token.Pkcs12SignatureToken;
+import me.duras.octosigndss.benchmarks.Fixtures;
+import me.duras.octosigndss.trust.RevocationCache;
+import me.duras.octosigndss.trust.TrustLoader;
+
+/**
+ * Verification of the signed fixtures from parsing to the report
+ *
+ * Lives in this package to reach {@link OperationVerify#verify(String)}. The
+ * trusted lists are not loaded (see TLRefreshBenchmark) and the self-signed
+ * test certificate has no revocation sources, so no network is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VerifyBenchmark {
+    @Param({ "pdf", "xml", "asice" })
+    public String format;
+
+    private OperationVerify operation;
+    private String filePath;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Fixtures.temporaryDirectory();
+        File keyStore = KeyStoreFixture.create(new File(directory, "test.p12"));
+        try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(keyStore,
+                new PasswordProtection(KeyStoreFixture.PASSWORD))) {
+            Signer signer = new Signer(token, token.getKeys().get(0), null);
+            File document = Fixtures.document(directory, this.format.equals("asice") ? "bin" : this.format);
+
+            File signedFile = new File(directory, "signed." + this.format);
+            signer.sign(document).save(signedFile.getAbsolutePath());
+            this.filePath = signedFile.getAbsolutePath();
+        }
+
+        TrustLoader trustLoader = new TrustLoader() {
+            @Override
+            public boolean load(Set<String> requiredCountries) {
+                return true;
+            }
+        };
+        this.operation = new OperationVerify(trustLoader,
+                new RevocationCache(new File(directory, "revocation-cache"), new File(directory, "key"),
+                        10 * 1024 * 1024));
+    }
+
+    @Benchmark
+    public Object verify() throws Exception {
+        return this.operation.verify(this.filePath);
+    }
+}
@@ -0,0 +1,43 @@
+package me.duras.octosigndss.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, writing JSON results
+ * named by the benchmarked version unless said otherwise
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+
+        if (!commandLineOptions.getResult().hasValue()) {
+            new File("results").mkdirs();
+            options.result("results/octosigndss-" + BenchmarkRunner.getVersion() + ".json");
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    private static String getVersion() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = BenchmarkRunner.class.getResourceAsStream("/benchmarks.properties")) {
+            properties.load(input);
+        }
+
+        return properties.getProperty("version", "unknown");
+    }
+}
@@ -0,0 +1,71 @@
+package me.duras.octosigndss.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Generated inputs of the benchmarks, so no network or real token is needed
+ *
+ * The test key is the KeyStoreFixture from the tests of the benchmarked module.
+ */
+public class Fixtures {
+    private static final int BINARY_SIZE = 1024 * 1024;
+
+    /**
+     * Document of the given format - pdf, xml or anything else for an ASiC-E
+     * container
+     */
+    public static File document(File directory, String format) throws IOException {
+        File file = new File(directory, "document." + format);
+        if (format.equals("pdf")) {
+            try (PDDocument document = new PDDocument()) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("Octosign benchmark document");
+                    content.endText();
+                }
+                document.save(file);
+            }
+        } else if (format.equals("xml")) {
+            Files.write(file.toPath(),
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?><document><title>Octosign benchmark document</title></document>"
+                            .getBytes(StandardCharsets.UTF_8));
+        } else {
+            byte[] content = new byte[BINARY_SIZE];
+            new Random(0).nextBytes(content);
+            Files.write(file.toPath(), content);
+        }
+
+        return file;
+    }
+
+    /**
+     * Copy of the trusted list cache, see README.md
+     */
+    public static File trustedLists() {
+        File directory = new File(System.getProperty("octosign.benchmark.tlFixtures", "fixtures/tl"));
+        if (!directory.isDirectory()) {
+            throw new IllegalStateException("Trusted list fixtures are missing in " + directory.getAbsolutePath());
+        }
+
+        return directory;
+    }
+
+    public static File temporaryDirectory() throws IOException {
+        File directory = Files.createTempDirectory("octosign-benchmark").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+}
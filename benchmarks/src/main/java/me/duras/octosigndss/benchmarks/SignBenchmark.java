@@ -0,0 +1,64 @@
+package me.duras.octosigndss.benchmarks;
+
+import java.io.File;
+import java.security.KeyStore.PasswordProtection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.token.Pkcs12SignatureToken;
+import me.duras.octosigndss.KeyStoreFixture;
+import me.duras.octosigndss.Signer;
+
+/**
+ * PAdES, XAdES and ASiC-E (CAdES) signing at the -B level with a PKCS #12 key
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SignBenchmark {
+    @Param({ "pdf", "xml", "bin" })
+    public String format;
+
+    private Pkcs12SignatureToken token;
+    private Signer signer;
+    private DSSDocument document;
+
+    @Setup
+    public void setUp() throws Exception {
+        File directory = Fixtures.temporaryDirectory();
+        this.token = new Pkcs12SignatureToken(KeyStoreFixture.create(new File(directory, "test.p12")),
+                new PasswordProtection(KeyStoreFixture.PASSWORD));
+        DSSPrivateKeyEntry privateKey = this.token.getKeys().get(0);
+
+        this.signer = new Signer(this.token, privateKey, null);
+        this.document = new FileDocument(Fixtures.document(directory, this.format));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.token.close();
+    }
+
+    @Benchmark
+    public DSSDocument sign() {
+        return this.signer.sign(this.document);
+    }
+}
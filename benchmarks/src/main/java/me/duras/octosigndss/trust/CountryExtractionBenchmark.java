@@ -0,0 +1,114 @@
+package me.duras.octosigndss.trust;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.NodeList;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
+import me.duras.octosigndss.benchmarks.Fixtures;
+
+/**
+ * Selection of the required trusted lists - the former regular expression scan
+ * compared with the country parser and the country index
+ *
+ * Uses all the certificates of the EU LOTL from the trusted list fixtures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountryExtractionBenchmark {
+    private static final Pattern canonicalizedCountryPattern = Pattern.compile(".*,?c=(\\w+),?.*",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Set<String> requiredCountries = Collections.singleton("sk");
+
+    private List<String> subjects;
+    private Map<String, List<String>> index;
+
+    @Setup
+    public void setUp() throws Exception {
+        File[] files = Fixtures.trustedLists().listFiles((file) -> file.getName().contains("eu-lotl"));
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("EU LOTL is missing in the trusted list fixtures");
+        }
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        NodeList nodes = factory.newDocumentBuilder().parse(files[0]).getElementsByTagNameNS("*",
+                "X509Certificate");
+
+        this.subjects = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            String base64 = nodes.item(i).getTextContent().replaceAll("\\s", "");
+            CertificateToken certificate = DSSUtils.loadCertificateFromBase64EncodedString(base64);
+            this.subjects.add(certificate.getCanonicalizedSubject());
+        }
+
+        // Index is built once per LOTL parse, selection is then a lookup
+        this.index = new HashMap<>();
+        for (String subject : this.subjects) {
+            String country = CountryParser.parse(subject);
+            if (country != null)
+                this.index.computeIfAbsent(country, (key) -> new ArrayList<>()).add(subject);
+        }
+    }
+
+    @Benchmark
+    public int regexScan() {
+        int found = 0;
+        for (String subject : this.subjects) {
+            Matcher matcher = canonicalizedCountryPattern.matcher(subject);
+            if (matcher.find() && this.requiredCountries.contains(matcher.group(1)))
+                found++;
+        }
+
+        return found;
+    }
+
+    @Benchmark
+    public int parserScan() {
+        int found = 0;
+        for (String subject : this.subjects) {
+            String country = CountryParser.parse(subject);
+            if (country != null && this.requiredCountries.contains(country))
+                found++;
+        }
+
+        return found;
+    }
+
+    @Benchmark
+    public int indexLookup() {
+        int found = 0;
+        for (String country : this.requiredCountries) {
+            found += this.index.getOrDefault(country, Collections.emptyList()).size();
+        }
+
+        return found;
+    }
+}
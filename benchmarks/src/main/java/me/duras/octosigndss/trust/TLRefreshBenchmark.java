@@ -0,0 +1,111 @@
+package me.duras.octosigndss.trust;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.europa.esig.dss.service.http.commons.FileCacheDataLoader;
+import eu.europa.esig.dss.spi.client.http.IgnoreDataLoader;
+import eu.europa.esig.dss.spi.tsl.TrustedListsCertificateSource;
+import eu.europa.esig.dss.spi.x509.KeyStoreCertificateSource;
+import eu.europa.esig.dss.tsl.function.OfficialJournalSchemeInformationURI;
+import eu.europa.esig.dss.tsl.source.LOTLSource;
+import me.duras.octosigndss.benchmarks.Fixtures;
+
+/**
+ * Refresh of the LOTL and the required trusted lists from the local fixtures
+ *
+ * Cold refresh parses and validates everything in a new job, warm refresh
+ * reuses the job like the long-lived process does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TLRefreshBenchmark {
+    private static final String LOTL_URL = "https://ec.europa.eu/tools/lotl/eu-lotl.xml";
+    private static final String OJ_URL = "https://eur-lex.europa.eu/legal-content/EN/TXT/?uri=uriserv:OJ.C_.2019.276.01.0001.01.ENG";
+
+    @State(Scope.Benchmark)
+    public static class ColdJob {
+        @Param({ "sk", "sk,cz,at,de,fr,it" })
+        public String countries;
+
+        LazyTLValidationJob job;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            this.job = TLRefreshBenchmark.createJob(this.countries);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WarmJob {
+        @Param({ "sk", "sk,cz,at,de,fr,it" })
+        public String countries;
+
+        LazyTLValidationJob job;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.job = TLRefreshBenchmark.createJob(this.countries);
+            TLRefreshBenchmark.refresh(this.job);
+        }
+    }
+
+    @Benchmark
+    public TrustedListsCertificateSource coldRefresh(ColdJob state) {
+        return TLRefreshBenchmark.refresh(state.job);
+    }
+
+    @Benchmark
+    public TrustedListsCertificateSource warmRefresh(WarmJob state) {
+        return TLRefreshBenchmark.refresh(state.job);
+    }
+
+    private static TrustedListsCertificateSource refresh(LazyTLValidationJob job) {
+        TrustedListsCertificateSource certificateSource = new TrustedListsCertificateSource();
+        job.setTrustedListCertificateSource(certificateSource);
+        job.onlineRefresh();
+        return certificateSource;
+    }
+
+    private static LazyTLValidationJob createJob(String countries) throws Exception {
+        // Never expires, so the data loader (and the network) is never used
+        FileCacheDataLoader fixtureLoader = new FileCacheDataLoader();
+        fixtureLoader.setCacheExpirationTime(Long.MAX_VALUE);
+        fixtureLoader.setDataLoader(new IgnoreDataLoader());
+        fixtureLoader.setFileCacheDirectory(Fixtures.trustedLists());
+
+        LOTLSource lotlSource = new LOTLSource();
+        lotlSource.setUrl(LOTL_URL);
+        lotlSource.setCertificateSource(new KeyStoreCertificateSource(
+                new File(System.getProperty("octosign.benchmark.keyStore", "../keystore.p12")), "PKCS12",
+                "dss-password"));
+        lotlSource.setSigningCertificatesAnnouncementPredicate(new OfficialJournalSchemeInformationURI(OJ_URL));
+        lotlSource.setPivotSupport(true);
+
+        LazyTLValidationJob job = new LazyTLValidationJob();
+        job.setOfflineDataLoader(fixtureLoader);
+        job.setOnlineDataLoader(fixtureLoader);
+        job.setListOfTrustedListSources(lotlSource);
+        job.addRequiredCountries(new HashSet<>(Arrays.asList(countries.split(","))));
+
+        return job;
+    }
+}
@@ -12,4 +12,30 @@ cp LICENSE ./dist/
 cp -r ./target/preparedJDK ./dist/jdk
 cp -r ./target/dependency-jars ./dist/
 cp ./keystore.p12 ./dist/
-cp ./target/octosigndss*.jar ./dist/sign.jar
+# The tests jar only shares the test fixtures with the benchmarks
+cp "$(ls ./target/octosigndss*.jar | grep -v -- '-tests\.jar$')" ./dist/sign.jar
+
+# Training run that fills the shared classes cache used by backend.yml exec
+# The bundled runtime is OpenJ9, its shared classes cache (with AOT code) is the equivalent of AppCDS
+cd ./dist
+JAVA="./jdk/bin/java -Xshareclasses:name=octosign,cacheDir=./jdk/classcache,nonFatal --add-opens jdk.crypto.cryptoki/sun.security.pkcs11=ALL-UNNAMED --add-exports jdk.crypto.cryptoki/sun.security.pkcs11.wrapper=ALL-UNNAMED"
+TRAINING=$(mktemp -d)
+# Training runs offline and its caches and keys stay in the temporary directory, not in the home of the builder
+JAVA="$JAVA -Duser.home=$TRAINING -Djava.io.tmpdir=$TRAINING"
+# Certificate without a country, AIA, OCSP or CRL, so the verification runs the full validation without the network
+./jdk/bin/keytool -genkeypair -keyalg RSA -keysize 2048 -dname "CN=Octosign Training" -validity 1 \
+    -storetype PKCS12 -keystore "$TRAINING/training.p12" -storepass training -keypass training -alias training
+echo '<?xml version="1.0" encoding="UTF-8"?><document>Training</document>' > "$TRAINING/training.xml"
+head -c 65536 /dev/urandom > "$TRAINING/training.bin"
+
+$JAVA -jar ./sign.jar meta > /dev/null
+for FILE in training.xml training.bin; do
+    # Answers for pkcsPath, tspUrl (none), detachedThreshold (none), password and save path
+    printf -- '--GETOPTION--\n%s\n--GETOPTION--\n--GETOPTION--\n\n--GETOPTION--\n--GETOPTION--\n\n--GETOPTION--\n--PROMPT--\ntraining\n--PROMPT--\n--PROMPT--\n%s\n--PROMPT--\n' \
+        "$TRAINING/training.p12" "$TRAINING/signed-$FILE" | $JAVA -jar ./sign.jar sign "$TRAINING/$FILE" > /dev/null
+done
+$JAVA -jar ./sign.jar verify "$TRAINING/signed-training.xml" > /dev/null
+$JAVA -jar ./sign.jar verify "$TRAINING/signed-training.bin.sce" > /dev/null
+
+rm -rf "$TRAINING"
+cd ..
@@ -1,16 +1,26 @@
 package me.duras.octosigndss;
 
+import java.io.BufferedOutputStream;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
+import me.duras.octosigndss.trust.PrivateStorage;
+import me.duras.octosigndss.trust.RevocationCache;
+import me.duras.octosigndss.trust.TLTaskExecutor;
+import me.duras.octosigndss.trust.TrustLoader;
+
 /**
  * DSS signing backend app
  */
 public class App {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     static {
         // TODO: Temporary solution for PDFBox logging output
         // Ideally, we would use slf4j simpleLogger (via custom Log or LogFactory?)
@@ -18,30 +28,179 @@ public class App {
         System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "error");
     }
 
+    private Scanner scanner;
+
+    /**
+     * Shared by all verify operations so the trusted lists are kept between them
+     */
+    private TrustLoader trustLoader;
+
+    /**
+     * Shared by all verify operations so the OCSP responses and CRLs are reused
+     */
+    private RevocationCache revocationCache;
+
+    /**
+     * Shared by all verify operations so the same documents are not validated
+     * again
+     */
+    private ResultCache resultCache;
+
+    public App(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
     public static void main(String[] args) throws UnsupportedEncodingException {
         Scanner scanner = new Scanner(new InputStreamReader(System.in, "UTF-8"));
         App.ensureUTF8SystemIO();
 
         if (args.length < 1) {
-            System.err.println("One of the operations is required: sign, verify, meta.");
+            System.err.println("One of the operations is required: sign, sign-bundle, sign-digest, verify, extend, status, meta, serve.");
             System.exit(1);
         }
 
-        if (args[0].equals("meta")) {
-            (new OperationMeta()).run();
-        } else if (args[0].equals("sign")) {
-            (new OperationSign(scanner)).run(args[1]);
-        } else if (args[0].equals("verify")) {
-            (new OperationVerify()).run(args[1]);
-        } else {
-            System.err.println("Unsupported operation " + args[0]);
-            System.exit(1);
+        App app = new App(scanner);
+        if (args[0].equals("serve")) {
+            app.serve();
+            System.exit(0);
+        }
+
+        System.exit(app.run(args));
+    }
+
+    /**
+     * Runs single operation and returns its exit code
+     *
+     * Operations are referenced only from their branches, so the classes of the
+     * other operations (and DSS) are not loaded. Keep it that way, meta is run
+     * on every start of the application.
+     */
+    public int run(String[] args) {
+        if (args.length < 1) {
+            System.err.println("One of the operations is required: sign, sign-bundle, sign-digest, verify, extend, status, meta.");
+            return 1;
+        }
+
+        try {
+            if (args[0].equals("meta")) {
+                return (new OperationMeta()).run();
+            } else if (args[0].equals("sign")) {
+                return (new OperationSign(scanner)).run(App.getFilePaths(args));
+            } else if (args[0].equals("sign-bundle")) {
+                return (new OperationSign(scanner)).runBundle(App.getFilePaths(args));
+            } else if (args[0].equals("sign-digest")) {
+                return (new OperationSign(scanner)).runDigest();
+            } else if (args[0].equals("verify")) {
+                return (new OperationVerify(this.getTrustLoader(), this.getRevocationCache(), this.getResultCache()))
+                        .run(App.getFilePaths(args));
+            } else if (args[0].equals("extend")) {
+                return (new OperationExtend(scanner, this.getTrustLoader(), this.getRevocationCache()))
+                        .run(App.getFilePaths(args));
+            } else if (args[0].equals("status")) {
+                return (new OperationStatus(this.getTrustLoader(), this.getRevocationCache())).run();
+            } else {
+                System.err.println("Unsupported operation " + args[0]);
+                return 1;
+            }
+        } catch (OperationException e) {
+            e.report();
+            return 1;
+        }
+    }
+
+    /**
+     * Keeps the process alive and runs operations framed by --OPERATION-- until
+     * the input is closed
+     *
+     * Each operation is followed by its exit code framed by --DONE--. Trusted
+     * lists are refreshed in the background every octosign.tlRefreshInterval
+     * minutes (default 60, 0 disables it).
+     */
+    public void serve() {
+        long refreshInterval = Config.getLong("tlRefreshInterval", 60);
+        if (refreshInterval > 0) {
+            this.getTrustLoader().startBackgroundRefresh(refreshInterval);
         }
+
+        Request request = new Request(scanner);
+        String[] args;
+        while ((args = request.operation()) != null) {
+            int exitCode;
+            try {
+                exitCode = this.run(args);
+            } catch (Exception e) {
+                System.err.println("Operation failed:");
+                System.err.println(e.getMessage());
+                exitCode = 1;
+            }
+
+            System.out.println("--DONE--");
+            System.out.println(exitCode);
+            System.out.println("--DONE--");
+            System.out.flush();
+        }
+    }
+
+    private TrustLoader getTrustLoader() {
+        if (this.trustLoader == null) {
+            this.trustLoader = new TrustLoader();
+            this.trustLoader.setTaskExecutor(new TLTaskExecutor(
+                    (int) Config.getLong("tlParallelism", TLTaskExecutor.DEFAULT_PARALLELISM),
+                    Config.getBoolean("tlVirtualThreads", false),
+                    Config.getLong("tlTaskTimeout", TLTaskExecutor.DEFAULT_TASK_TIMEOUT)));
+
+            if (Config.getBoolean("tlOfflineFirst", false)) {
+                this.trustLoader.setOfflineFirst(Config.getLong("tlMaxAge", 120),
+                        Config.getLong("tlRefreshDeadline", 5));
+            }
+        }
+
+        return this.trustLoader;
+    }
+
+    /**
+     * @return cache of the verification results or null if it is disabled by
+     *         octosign.resultCache
+     */
+    private ResultCache getResultCache() {
+        if (this.resultCache == null && Config.getBoolean("resultCache", true)) {
+            // Results are trusted as they are, so they are kept in the private directory
+            this.resultCache = new ResultCache(PrivateStorage.getDirectory("result-cache"), PrivateStorage.getKeyFile(),
+                    Config.getLong("resultCacheMaxAge", 60));
+        }
+
+        return this.resultCache;
+    }
+
+    private RevocationCache getRevocationCache() {
+        if (this.revocationCache == null) {
+            // Responses are trusted once cached, so they are kept in the private directory
+            long maxSize = Config.getLong("revocationCacheSize", 100) * 1024 * 1024;
+            this.revocationCache = new RevocationCache(PrivateStorage.getDirectory("revocation-cache"),
+                    PrivateStorage.getKeyFile(), maxSize);
+        }
+
+        return this.revocationCache;
+    }
+
+    private static List<String> getFilePaths(String[] args) {
+        if (args.length < 2) {
+            throw new OperationException("Path to the file is required for the operation " + args[0] + ".");
+        }
+
+        return Arrays.asList(args).subList(1, args.length);
     }
 
+    /**
+     * Standard output is buffered, it is flushed before waiting for the input
+     * (see {@link Request}), after each result of a batch and on exit
+     */
     private static void ensureUTF8SystemIO() {
         try {
-            System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8"));
+            System.setOut(new PrintStream(
+                    new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE), false,
+                    "UTF-8"));
+            Runtime.getRuntime().addShutdownHook(new Thread(System.out::flush));
             System.setErr(new PrintStream(new FileOutputStream(FileDescriptor.err), true, "UTF-8"));
         } catch (UnsupportedEncodingException e) {
             throw new InternalError("VM does not support mandatory encoding UTF-8");
@@ -0,0 +1,58 @@
+package me.duras.octosigndss;
+
+import java.util.Locale;
+
+/**
+ * Reports results of an operation over multiple files as soon as each file is
+ * done
+ *
+ * Every file gets its own result framed by --RESULT-- that starts with the file
+ * path, the whole batch ends with throughput framed by --SUMMARY--.
+ * Operations exit with 1 unless all the files succeeded, see
+ * {@link #isSuccessful()}.
+ */
+public class BatchReport {
+    private final long startTime = System.nanoTime();
+    private int total = 0;
+    private int succeeded = 0;
+
+    public synchronized void success(String filePath, String... lines) {
+        this.total++;
+        this.succeeded++;
+        this.print(filePath, lines);
+    }
+
+    public synchronized void failure(String filePath, String... lines) {
+        this.total++;
+        this.print(filePath, lines);
+    }
+
+    /**
+     * @return true if none of the reported files failed
+     */
+    public synchronized boolean isSuccessful() {
+        return this.succeeded == this.total;
+    }
+
+    public synchronized void summary() {
+        double seconds = (System.nanoTime() - this.startTime) / 1e9;
+        double documentsPerSecond = seconds > 0 ? this.total / seconds : 0;
+
+        System.out.println("--SUMMARY--");
+        System.out.println(this.succeeded + "/" + this.total);
+        System.out.println(String.format(Locale.ROOT, "%.3f s", seconds));
+        System.out.println(String.format(Locale.ROOT, "%.2f documents/s", documentsPerSecond));
+        System.out.println("--SUMMARY--");
+    }
+
+    private void print(String filePath, String... lines) {
+        System.out.println("--RESULT--");
+        System.out.println(filePath);
+        for (String line : lines) {
+            System.out.println(line);
+        }
+        System.out.println("--RESULT--");
+        // Each result is shown as soon as the file is done
+        System.out.flush();
+    }
+}
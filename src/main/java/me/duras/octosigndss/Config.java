@@ -0,0 +1,51 @@
+package me.duras.octosigndss;
+
+/**
+ * Settings of the backend itself, as opposed to the user options asked for by
+ * {@link Request#option(String)}
+ *
+ * Each setting is read from the system property "octosign.name" with the
+ * environment variable "OCTOSIGN_NAME" as a fallback, for example
+ * octosign.tlRefreshInterval or OCTOSIGN_TL_REFRESH_INTERVAL.
+ */
+public class Config {
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty("octosign." + name);
+        if (value == null) {
+            value = System.getenv(Config.getEnvironmentName(name));
+        }
+
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = Config.get(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value of the setting " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = Config.get(name, null);
+        return value == null ? defaultValue : value.equalsIgnoreCase("true") || value.equals("1");
+    }
+
+    private static String getEnvironmentName(String name) {
+        StringBuilder environmentName = new StringBuilder("OCTOSIGN_");
+        for (char character : name.toCharArray()) {
+            if (Character.isUpperCase(character)) {
+                environmentName.append('_');
+            }
+            environmentName.append(Character.toUpperCase(character));
+        }
+
+        return environmentName.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.utils.Utils;
+import me.duras.octosigndss.trust.PrivateStorage;
+
+/**
+ * Keys of the tokens stored on the disk, so the certificates can be offered
+ * before the (possibly slow) token enumerates them
+ *
+ * Inventory of a token is identified by the token serial numbers (PKCS #11) or
+ * by the file (PKCS #12) and holds the certificate fingerprints, their DSS IDs
+ * and labels. It is only a hint, the chosen key is always looked up on the
+ * live token.
+ */
+public class KeyInventory {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd")
+            .withZone(ZoneId.systemDefault());
+
+    private File directory;
+
+    public KeyInventory(File directory) {
+        this.directory = directory;
+
+        directory.mkdirs();
+    }
+
+    /**
+     * @return inventory or null if it is disabled by octosign.keyInventory
+     */
+    public static KeyInventory fromConfig() {
+        if (!Config.getBoolean("keyInventory", true)) {
+            return null;
+        }
+
+        // Certificates offered to the user are kept where other users can't plant them
+        return new KeyInventory(PrivateStorage.getDirectory("key-inventory"));
+    }
+
+    /**
+     * Identifies the token without logging in
+     *
+     * @return token ID or null if the token can't be identified cheaply
+     */
+    public static String getTokenId(String pkcsPath, boolean isPkcs12) {
+        if (pkcsPath == null) {
+            return "mscapi:" + System.getProperty("user.name");
+        }
+
+        File file = new File(pkcsPath);
+        if (isPkcs12) {
+            return "pkcs12:" + file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+        }
+
+        try {
+            Map<Long, String> serials = Pkcs11Slots.getTokenSerials(pkcsPath);
+            return serials.isEmpty() ? null
+                    : "pkcs11:" + file.getAbsolutePath() + ":" + String.join(",", serials.values());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return stored keys of the token or null if there are none
+     */
+    public List<Entry> get(String tokenId) {
+        File file = this.getFile(tokenId);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties inventory = new Properties();
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            inventory.load(input);
+        } catch (IOException e) {
+            return null;
+        }
+
+        // Hash collision or corrupted file
+        if (!tokenId.equals(inventory.getProperty("token"))) {
+            return null;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; inventory.containsKey("key." + i + ".id"); i++) {
+            entries.add(new Entry(inventory.getProperty("key." + i + ".fingerprint"),
+                    inventory.getProperty("key." + i + ".id"), inventory.getProperty("key." + i + ".label")));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Stores keys enumerated by the live token, failure to do so is not fatal
+     */
+    public void put(String tokenId, List<DSSPrivateKeyEntry> keys) {
+        Properties inventory = new Properties();
+        inventory.setProperty("token", tokenId);
+
+        List<Entry> entries = KeyInventory.toEntries(keys);
+        for (int i = 0; i < entries.size(); i++) {
+            inventory.setProperty("key." + i + ".fingerprint", entries.get(i).fingerprint);
+            inventory.setProperty("key." + i + ".id", entries.get(i).id);
+            inventory.setProperty("key." + i + ".label", entries.get(i).label);
+        }
+
+        File file = this.getFile(tokenId);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+                inventory.store(output, null);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporaryFile.delete();
+        }
+    }
+
+    public static List<Entry> toEntries(List<DSSPrivateKeyEntry> keys) {
+        return keys.stream().map(key -> {
+            CertificateToken certificate = key.getCertificate();
+            return new Entry(Utils.toHex(certificate.getDigest(DigestAlgorithm.SHA256)),
+                    certificate.getDSSId().asXmlId(), KeyInventory.getLabel(certificate));
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Label shown to the user, for example "John Doe, Bratislava Street 1, SK
+     * (2020-01-01 - 2025-01-01)"
+     */
+    public static String getLabel(CertificateToken certificate) {
+        String dn = certificate.getSubjectX500Principal().getName("RFC2253");
+        try {
+            LdapName ldapDN = new LdapName(dn);
+            String dnName = "";
+            String dnCountry = "";
+            String dnCity = "";
+            String dnStreet = "";
+            String notBefore = DATE_FORMAT.format(certificate.getNotBefore().toInstant());
+            String notAfter = DATE_FORMAT.format(certificate.getNotAfter().toInstant());
+            for (Rdn rdn : ldapDN.getRdns()) {
+                if (rdn.getType().equalsIgnoreCase("CN"))
+                    dnName = rdn.getValue().toString();
+                if (rdn.getType().equalsIgnoreCase("C"))
+                    dnCountry = rdn.getValue().toString();
+                if (rdn.getType().equalsIgnoreCase("L"))
+                    dnCity = rdn.getValue().toString();
+                if (rdn.getType().equalsIgnoreCase("STREET"))
+                    dnStreet = rdn.getValue().toString();
+            }
+
+            return String.format("%s, %s %s, %s (%s - %s)", dnName, dnCity, dnStreet, dnCountry, notBefore,
+                    notAfter);
+        } catch (Exception e) {
+            return "Certificate SN: " + certificate.getCertificate().getSerialNumber().toString(16);
+        }
+    }
+
+    private File getFile(String tokenId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(tokenId.getBytes(StandardCharsets.UTF_8));
+            return new File(this.directory, Utils.toHex(digest) + ".properties");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Entry {
+        public final String fingerprint;
+        public final String id;
+        public final String label;
+
+        Entry(String fingerprint, String id, String label) {
+            this.fingerprint = fingerprint;
+            this.id = id;
+            this.label = label;
+        }
+    }
+}
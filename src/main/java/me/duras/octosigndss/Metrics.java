@@ -0,0 +1,145 @@
+package me.duras.octosigndss;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLSource;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLToken;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPSource;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPToken;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+
+/**
+ * Timings and byte counts of the phases of an operation, enabled by the
+ * octosign.metrics setting
+ *
+ * Printed after the result framed by --METRICS--, one phase per line, for
+ * example "getDataToSign time=12.345ms bytes=0 count=1". Phases recorded
+ * multiple times (also from multiple threads) are summed up.
+ */
+public class Metrics {
+    private static final Phase DISABLED_PHASE = new Phase(null, null);
+
+    private final boolean enabled;
+    private final Map<String, Totals> totals = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static Metrics fromConfig() {
+        return new Metrics(Config.getBoolean("metrics", false));
+    }
+
+    /**
+     * Starts measuring the phase, it is recorded once the returned phase is
+     * closed
+     */
+    public Phase start(String name) {
+        return this.enabled ? new Phase(this, name) : DISABLED_PHASE;
+    }
+
+    public void record(String name, long nanoseconds, long bytes) {
+        if (!this.enabled) {
+            return;
+        }
+
+        Totals phaseTotals = this.totals.computeIfAbsent(name, (key) -> new Totals());
+        phaseTotals.nanoseconds.add(nanoseconds);
+        phaseTotals.bytes.add(bytes);
+        phaseTotals.count.increment();
+    }
+
+    public TSPSource measure(TSPSource source) {
+        if (!this.enabled) {
+            return source;
+        }
+
+        return (digestAlgorithm, digest) -> {
+            try (Phase phase = this.start("tsp")) {
+                TimestampBinary timestamp = source.getTimeStampResponse(digestAlgorithm, digest);
+                phase.addBytes(timestamp != null ? timestamp.getBytes().length : 0);
+                return timestamp;
+            }
+        };
+    }
+
+    public OCSPSource measure(OCSPSource source) {
+        if (!this.enabled) {
+            return source;
+        }
+
+        return (certificateToken, issuerCertificateToken) -> {
+            try (Phase phase = this.start("ocsp")) {
+                OCSPToken token = source.getRevocationToken(certificateToken, issuerCertificateToken);
+                phase.addBytes(token != null ? token.getEncoded().length : 0);
+                return token;
+            }
+        };
+    }
+
+    public CRLSource measure(CRLSource source) {
+        if (!this.enabled) {
+            return source;
+        }
+
+        return (certificateToken, issuerCertificateToken) -> {
+            try (Phase phase = this.start("crl")) {
+                CRLToken token = source.getRevocationToken(certificateToken, issuerCertificateToken);
+                phase.addBytes(token != null ? token.getEncoded().length : 0);
+                return token;
+            }
+        };
+    }
+
+    public void print() {
+        if (!this.enabled) {
+            return;
+        }
+
+        StringBuilder block = new StringBuilder("--METRICS--\n");
+        synchronized (this.totals) {
+            for (Map.Entry<String, Totals> entry : this.totals.entrySet()) {
+                Totals phaseTotals = entry.getValue();
+                block.append(String.format(Locale.ROOT, "%s time=%.3fms bytes=%d count=%d\n", entry.getKey(),
+                        phaseTotals.nanoseconds.sum() / 1e6, phaseTotals.bytes.sum(), phaseTotals.count.sum()));
+            }
+        }
+        block.append("--METRICS--");
+
+        System.out.println(block);
+    }
+
+    public static class Phase implements AutoCloseable {
+        private final Metrics metrics;
+        private final String name;
+        private final long start = System.nanoTime();
+        private long bytes = 0;
+
+        private Phase(Metrics metrics, String name) {
+            this.metrics = metrics;
+            this.name = name;
+        }
+
+        public void addBytes(long bytes) {
+            this.bytes += bytes;
+        }
+
+        @Override
+        public void close() {
+            if (this.metrics != null) {
+                this.metrics.record(this.name, System.nanoTime() - this.start, this.bytes);
+            }
+        }
+    }
+
+    private static class Totals {
+        final LongAdder nanoseconds = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder count = new LongAdder();
+    }
+}
@@ -0,0 +1,25 @@
+package me.duras.octosigndss;
+
+/**
+ * Failure of an operation that should be reported to the user
+ *
+ * The message is shown as is, followed by the message of the cause (if any).
+ */
+public class OperationException extends RuntimeException {
+    private static final long serialVersionUID = 4120393829624707541L;
+
+    public OperationException(String message) {
+        super(message);
+    }
+
+    public OperationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public void report() {
+        System.err.println(this.getMessage());
+        if (this.getCause() != null) {
+            System.err.println(this.getCause().getMessage());
+        }
+    }
+}
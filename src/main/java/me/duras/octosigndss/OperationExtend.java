@@ -0,0 +1,235 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import eu.europa.esig.dss.AbstractSignatureParameters;
+import eu.europa.esig.dss.asic.cades.ASiCWithCAdESSignatureParameters;
+import eu.europa.esig.dss.asic.cades.signature.ASiCWithCAdESService;
+import eu.europa.esig.dss.enumerations.ASiCContainerType;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.pades.PAdESSignatureParameters;
+import eu.europa.esig.dss.pades.signature.PAdESService;
+import eu.europa.esig.dss.service.crl.OnlineCRLSource;
+import eu.europa.esig.dss.service.http.commons.CommonsDataLoader;
+import eu.europa.esig.dss.service.http.commons.FileCacheDataLoader;
+import eu.europa.esig.dss.service.ocsp.OnlineOCSPSource;
+import eu.europa.esig.dss.signature.AbstractSignatureService;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import eu.europa.esig.dss.validation.AdvancedSignature;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.validation.SignedDocumentValidator;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+import me.duras.octosigndss.trust.CachedCRLSource;
+import me.duras.octosigndss.trust.CachedOCSPSource;
+import me.duras.octosigndss.trust.RevocationCache;
+import me.duras.octosigndss.trust.TrustLoader;
+
+/**
+ * Extends signatures of already signed documents to -LT or, with the
+ * extendLevel setting "lta", to -LTA
+ *
+ * All the documents share one certificate verifier, so each issuer certificate
+ * (AIA), OCSP response and CRL is fetched only once for the whole batch and
+ * kept in the caches for the next ones. Trusted lists of the signature
+ * countries are loaded the same way as for the verification. Extended
+ * documents are saved next to the originals. Signatures without a timestamp
+ * get one first, so they fail without the timestamping server.
+ */
+public class OperationExtend {
+    private static final long AIA_CACHE_EXPIRATION = TimeUnit.DAYS.toMillis(1);
+
+    private Scanner scanner;
+    private TrustLoader trustLoader;
+    private RevocationCache revocationCache;
+    private Metrics metrics = Metrics.fromConfig();
+
+    private boolean archival;
+    private boolean timestamping;
+    private CommonCertificateVerifier certificateVerifier;
+    private PAdESService padesService;
+    private XAdESService xadesService;
+    private ASiCWithCAdESService asicService;
+
+    public OperationExtend(Scanner scanner, TrustLoader trustLoader, RevocationCache revocationCache) {
+        this.scanner = scanner;
+        this.trustLoader = trustLoader;
+        this.revocationCache = revocationCache;
+    }
+
+    public int run(List<String> paths) {
+        // Only -LTA always needs the server, -LT only for the documents without a signature timestamp yet
+        String tspUrl = new Request(scanner).option("tspUrl");
+        this.archival = "lta".equalsIgnoreCase(Config.get("extendLevel", "lt"));
+        if (this.archival && tspUrl == null) {
+            throw new OperationException("Timestamping server is required for -LTA. Please check Settings and Help.");
+        }
+
+        List<String> filePaths;
+        try {
+            filePaths = OperationVerify.getFilePaths(paths);
+        } catch (IOException e) {
+            throw new OperationException("Listing of the files failed:", e);
+        }
+
+        this.initServices(tspUrl);
+
+        BatchReport report = new BatchReport();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (String filePath : filePaths) {
+                pool.execute(() -> {
+                    try {
+                        report.success(filePath, "EXTENDED", this.extend(filePath));
+                    } catch (Exception e) {
+                        report.failure(filePath, "ERROR", String.valueOf(e.getMessage()));
+                    }
+                });
+            }
+
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        this.metrics.print();
+        report.summary();
+
+        return report.isSuccessful() ? 0 : 1;
+    }
+
+    /**
+     * @return path of the extended document
+     */
+    String extend(String filePath) throws IOException {
+        if (!OperationVerify.isSupported(filePath)) {
+            throw new OperationException("Unsupported file type.");
+        }
+
+        File file = new File(filePath);
+        DSSDocument document = new FileDocument(file);
+        List<AdvancedSignature> signatures = this.parse(document);
+        boolean hasUntimestamped = signatures.stream()
+                .anyMatch((signature) -> signature.getSignatureTimestamps().isEmpty());
+        if (!this.timestamping && hasUntimestamped) {
+            throw new OperationException("Signature without a timestamp can't be extended without a timestamping "
+                    + "server. Please check Settings and Help.");
+        }
+
+        this.loadTrust(OperationVerify.getSignatureCertificateCountries(signatures));
+
+        // TODO: Improve type safety
+        AbstractSignatureService service = this.getService(file.getName());
+        DSSDocument extendedDocument;
+        try (Metrics.Phase phase = this.metrics.start("extend")) {
+            extendedDocument = service.extendDocument(document, this.getParameters(file.getName()));
+        }
+
+        String path = OperationExtend.getExtendedFilePath(file);
+        try (Metrics.Phase phase = this.metrics.start("save")) {
+            extendedDocument.save(path);
+            phase.addBytes(new File(path).length());
+        }
+
+        return path;
+    }
+
+    private List<AdvancedSignature> parse(DSSDocument document) {
+        try (Metrics.Phase phase = this.metrics.start("parse")) {
+            SignedDocumentValidator documentValidator = SignedDocumentValidator.fromDocument(document);
+            documentValidator.setCertificateVerifier(this.certificateVerifier);
+            return documentValidator.getSignatures();
+        }
+    }
+
+    /**
+     * Loads the trusted lists of the signature countries, so the certificate
+     * chains of the signatures end in the trusted certificates
+     */
+    private void loadTrust(Set<String> countries) {
+        if (countries.isEmpty()) {
+            return;
+        }
+
+        try (Metrics.Phase phase = this.metrics.start("tlLoad")) {
+            this.trustLoader.load(countries);
+        }
+        // Published certificate source is replaced by the one with the new countries, the shared verifier follows it
+        this.certificateVerifier.setTrustedCertSource(this.trustLoader.getTrustedCertificateSource());
+    }
+
+    /**
+     * Path of the extended document next to the original, for example
+     * contract-extended.pdf
+     */
+    public static String getExtendedFilePath(File file) {
+        String path = file.getAbsolutePath();
+        int extensionStart = path.lastIndexOf('.');
+        return path.substring(0, extensionStart) + "-extended" + path.substring(extensionStart);
+    }
+
+    private void initServices(String tspUrl) {
+        CommonCertificateVerifier cv = new CommonCertificateVerifier();
+        this.certificateVerifier = cv;
+        cv.setTrustedCertSource(this.trustLoader.getTrustedCertificateSource());
+
+        // Issuer certificates from AIA are downloaded once for all the documents
+        FileCacheDataLoader dataLoader = new FileCacheDataLoader(new CommonsDataLoader());
+        dataLoader.setFileCacheDirectory(new File(System.getProperty("java.io.tmpdir"), "octosign-aia-cache"));
+        dataLoader.setCacheExpirationTime(AIA_CACHE_EXPIRATION);
+        cv.setDataLoader(dataLoader);
+        // Only the requests not answered from the cache are measured
+        cv.setOcspSource(new CachedOCSPSource(this.metrics.measure(new OnlineOCSPSource()), this.revocationCache));
+        cv.setCrlSource(new CachedCRLSource(this.metrics.measure(new OnlineCRLSource()), this.revocationCache));
+
+        TSPSource tspSource = tspUrl != null ? this.metrics.measure(TspSourcePool.forUrls(tspUrl)) : null;
+        this.timestamping = tspSource != null;
+
+        this.padesService = new PAdESService(cv);
+        this.padesService.setTspSource(tspSource);
+        this.xadesService = new XAdESService(cv);
+        this.xadesService.setTspSource(tspSource);
+        this.asicService = new ASiCWithCAdESService(cv);
+        this.asicService.setTspSource(tspSource);
+    }
+
+    private AbstractSignatureService getService(String fileName) {
+        if (fileName.endsWith(".pdf")) {
+            return this.padesService;
+        } else if (fileName.endsWith(".xml")) {
+            return this.xadesService;
+        }
+
+        return this.asicService;
+    }
+
+    private AbstractSignatureParameters getParameters(String fileName) {
+        AbstractSignatureParameters parameters;
+        if (fileName.endsWith(".pdf")) {
+            parameters = new PAdESSignatureParameters();
+            parameters.setSignatureLevel(
+                    this.archival ? SignatureLevel.PAdES_BASELINE_LTA : SignatureLevel.PAdES_BASELINE_LT);
+        } else if (fileName.endsWith(".xml")) {
+            parameters = new XAdESSignatureParameters();
+            parameters.setSignatureLevel(
+                    this.archival ? SignatureLevel.XAdES_BASELINE_LTA : SignatureLevel.XAdES_BASELINE_LT);
+        } else {
+            ASiCWithCAdESSignatureParameters asicParameters = new ASiCWithCAdESSignatureParameters();
+            asicParameters.setSignatureLevel(
+                    this.archival ? SignatureLevel.CAdES_BASELINE_LTA : SignatureLevel.CAdES_BASELINE_LT);
+            asicParameters.aSiC().setContainerType(ASiCContainerType.ASiC_E);
+            parameters = asicParameters;
+        }
+
+        return parameters;
+    }
+}
@@ -4,16 +4,19 @@ import java.io.File;
 import java.util.Locale;
 
 public class OperationMeta {
-    public void run() {
+    public int run() {
         String pkcsDllPath = this.findPkcsDllPath();
         String defaultDllPath = pkcsDllPath == null ? "" : pkcsDllPath;
 
         System.out.println("--RESULT--");
         System.out.println("OK");
+        // Files over the detached size (in MB), except PDFs, get a detached XAdES signature instead
         System.out.println("OPTIONS:pkcsPath\"PKCS #11/#12 Path\"(\"" + defaultDllPath
-                + "\") tspUrl\"Timestamping Server URL\"(\"http://timestamp.digicert.com\")");
+                + "\") tspUrl\"Timestamping Server URL\"(\"http://timestamp.digicert.com\")"
+                + " detachedThreshold\"Detached Signature Over (MB)\"(\"\")");
         System.out.println("--RESULT--");
-        System.exit(0);
+
+        return 0;
     }
 
     private String findPkcsDllPath() {
@@ -1,263 +1,540 @@
 package me.duras.octosigndss;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.security.KeyStore.PasswordProtection;
 
-import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
-
-import eu.europa.esig.dss.AbstractSignatureParameters;
-import eu.europa.esig.dss.asic.cades.ASiCWithCAdESSignatureParameters;
-import eu.europa.esig.dss.asic.cades.signature.ASiCWithCAdESService;
-import eu.europa.esig.dss.enumerations.ASiCContainerType;
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
-import eu.europa.esig.dss.enumerations.SignatureLevel;
-import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.enumerations.SignatureForm;
 import eu.europa.esig.dss.model.DSSDocument;
-import eu.europa.esig.dss.model.FileDocument;
-import eu.europa.esig.dss.model.SignatureValue;
-import eu.europa.esig.dss.model.ToBeSigned;
-import eu.europa.esig.dss.pades.PAdESSignatureParameters;
-import eu.europa.esig.dss.pades.signature.PAdESService;
-import eu.europa.esig.dss.service.tsp.OnlineTSPSource;
-import eu.europa.esig.dss.signature.AbstractSignatureService;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.MimeType;
 import eu.europa.esig.dss.token.AbstractKeyStoreTokenConnection;
 import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
 import eu.europa.esig.dss.token.MSCAPISignatureToken;
 import eu.europa.esig.dss.token.Pkcs11SignatureToken;
 import eu.europa.esig.dss.token.Pkcs12SignatureToken;
-import eu.europa.esig.dss.validation.CommonCertificateVerifier;
-import eu.europa.esig.dss.xades.XAdESSignatureParameters;
-import eu.europa.esig.dss.xades.signature.XAdESService;
+import eu.europa.esig.dss.utils.Utils;
 
 public class OperationSign {
+    /**
+     * How many times the user can enter a wrong password before the operation
+     * fails
+     */
+    private static final int PASSWORD_ATTEMPTS = 3;
+
     private Scanner scanner;
+    private Metrics metrics = Metrics.fromConfig();
 
     public OperationSign(Scanner scanner) {
         this.scanner = scanner;
     }
 
-    public void run(String filePath) {
-        Request request = new Request(scanner);
-        String pkcsPath = request.option("pkcsPath");
-        String tspUrl = request.option("tspUrl");
-        boolean isWindows = System.getProperty("os.name").toLowerCase().indexOf("win") >= 0;
-
-        if (!isWindows && pkcsPath == null) {
-            System.err.println("PKCS #11/#12 path is not configured. Please check Settings and Help.");
-            System.exit(1);
+    /**
+     * With octosign.pkcs11AllSlots, multiple files are signed in parallel by all
+     * the PKCS #11 slots holding the chosen certificate
+     */
+    public int run(List<String> filePaths) {
+        if (filePaths.size() == 1) {
+            return this.withSigner(new Request(scanner),
+                    (signer, request) -> this.signSingle(signer, filePaths.get(0), request));
         }
 
-        if (pkcsPath != null && !Files.exists(Paths.get(pkcsPath))) {
-            System.err.println("PKCS #11/#12 path doesn't exist. Please check Settings and Help.");
-            System.exit(1);
+        if (Config.getBoolean("pkcs11AllSlots", false)) {
+            return this.withSlotSigners(new Request(scanner), signers -> this.signBatch(signers, filePaths));
         }
 
-        File fileToSign = new File(filePath);
-        DSSDocument document = new FileDocument(fileToSign);
-        String outputPath = null;
+        return this.withSigner(new Request(scanner),
+                (signer, request) -> this.signBatch(Collections.singletonList(signer), filePaths));
+    }
 
-        boolean isPkcs12 = pkcsPath != null && (pkcsPath.endsWith(".p12") || pkcsPath.endsWith(".pfx"));
-        if (isPkcs12) {
-            // TODO: Can we check if file has no password so we don't ask for empty password?
-            PasswordCallback callback = new PasswordCallback(request);
-            PasswordProtection password = new PasswordProtection(callback.getPassword());
+    /**
+     * Signs all the files with one signature in a single ASiC-E container
+     */
+    public int runBundle(List<String> filePaths) {
+        return this.withSigner(new Request(scanner), (signer, request) -> {
+            List<File> files = filePaths.stream().map(File::new).collect(Collectors.toList());
+            DSSDocument container = signer.signContainer(files);
+
+            String path = request.prompt("save", "Save signed file as",
+                    Signer.getContainerFilePath(files.get(0).getAbsolutePath()));
+            if (path == null) {
+                throw new OperationException("Signed file path was not chosen.");
+            }
 
-            try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(pkcsPath, password)) {
-                outputPath = this.sign(token, document, fileToSign, tspUrl, request);
+            path = Signer.getContainerFilePath(path);
+
+            try (Metrics.Phase phase = this.metrics.start("save")) {
+                container.save(path);
+                phase.addBytes(new File(path).length());
             } catch (Exception e) {
-                System.err.println("Using of the PKCS #12 file failed:");
-                System.err.println(e.getMessage());
-                System.exit(1);
+                throw new OperationException("There was an error saving the signed document:", e);
             }
-        } else if (pkcsPath != null) {
-            // TODO: Get a list of slots with tokens and let user choose
-            // Currently, default slot should be used if the int is negative
-            // We probably have to use with reflection (.getClass().getMethod())
-            // using method C_GetSlotList with true as parameter to get slots with tokens
-            // and C_GetSlotInfo/C_GetTokenInfo for info about these slots
-            try (Pkcs11SignatureToken token = new Pkcs11SignatureToken(pkcsPath, new PasswordCallback(request), -1)) {
-                outputPath = this.sign(token, document, fileToSign, tspUrl, request);
-            } catch (Exception e) {
-                System.err.println("Using of the PKCS #11 library failed:");
-                System.err.println(e.getMessage());
-                System.exit(1);
+
+            System.out.println("--RESULT--");
+            System.out.println(path);
+            System.out.println("--RESULT--");
+
+            return 0;
+        });
+    }
+
+    /**
+     * Signs a document known only by its SHA-256 digest, so the document itself
+     * is never read
+     *
+     * Digest (hex or Base64), file name and MIME type of the document are asked
+     * for as options. The result is a detached XAdES or, with the
+     * signatureFormat option "cades", CAdES signature.
+     */
+    public int runDigest() {
+        Request request = new Request(scanner);
+        DigestDocument document = this.getDigestDocument(request.option("digest"), request.option("fileName"),
+                request.option("mimeType"));
+        SignatureForm signatureForm = "cades".equalsIgnoreCase(request.option("signatureFormat"))
+                ? SignatureForm.CAdES
+                : SignatureForm.XAdES;
+
+        return this.withSigner(request, (signer, digestRequest) -> {
+            DSSDocument signature = signer.signDetached(document, signatureForm);
+
+            String extension = signatureForm == SignatureForm.CAdES ? ".p7s" : ".xml";
+            String path = digestRequest.prompt("save", "Save signature as",
+                    new File(document.getName() + extension).getAbsolutePath());
+            if (path == null) {
+                throw new OperationException("Signed file path was not chosen.");
             }
-        } else {
-            try (MSCAPISignatureToken token = new MSCAPISignatureToken()) {
-                outputPath = this.sign(token, document, fileToSign, tspUrl, request);
+
+            if (!path.endsWith(extension)) {
+                path += extension;
+            }
+
+            try (Metrics.Phase phase = this.metrics.start("save")) {
+                signature.save(path);
+                phase.addBytes(new File(path).length());
             } catch (Exception e) {
-                System.err.println("Using of the MS CAPI failed:");
-                System.err.println(e.getMessage());
-                System.exit(1);
+                throw new OperationException("There was an error saving the signed document:", e);
+            }
+
+            System.out.println("--RESULT--");
+            System.out.println(path);
+            System.out.println("--RESULT--");
+
+            return 0;
+        });
+    }
+
+    private int withSigner(Request request, BiFunction<Signer, Request, Integer> operation) {
+        String pkcsPath = this.getPkcsPath(request);
+        String tspUrl = request.option("tspUrl");
+        long detachedThreshold = this.getDetachedThreshold(request);
+
+        // Token is opened and the key is chosen only once for all the files
+        PasswordCallback callback = new PasswordCallback(request);
+        try (AbstractKeyStoreTokenConnection token = this.openToken(pkcsPath, callback)) {
+            String tokenId = KeyInventory.getTokenId(pkcsPath, this.isPkcs12(pkcsPath));
+            Signer signer = new Signer(token, this.getPrivateKey(request, token, tokenId, callback), tspUrl);
+            signer.setMetrics(this.metrics);
+            signer.setPasswordCallback(callback);
+            signer.setDetachedThreshold(detachedThreshold);
+
+            return operation.apply(signer, request);
+        } catch (OperationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (this.isPkcs12(pkcsPath)) {
+                throw new OperationException("Using of the PKCS #12 file failed:", e);
+            } else if (pkcsPath != null) {
+                throw new OperationException("Using of the PKCS #11 library failed:", e);
+            } else {
+                throw new OperationException("Using of the MS CAPI failed:", e);
             }
+        } finally {
+            this.metrics.print();
         }
+    }
 
-        System.out.println("--RESULT--");
-        System.out.println(outputPath);
-        System.out.println("--RESULT--");
-        System.exit(0);
+    /**
+     * Opens a token in every PKCS #11 slot and creates a signer for each one
+     * holding the certificate chosen on the first one
+     *
+     * Password is asked for only once. It is used for the other tokens only once
+     * it logged into the first one and slots it doesn't log into are not used.
+     * Falls back to a single signer if the tokens are not PKCS #11.
+     */
+    private int withSlotSigners(Request request, Function<List<Signer>, Integer> operation) {
+        String pkcsPath = this.getPkcsPath(request);
+        String tspUrl = request.option("tspUrl");
+
+        if (pkcsPath == null || this.isPkcs12(pkcsPath)) {
+            return this.withSigner(request, (signer, signerRequest) -> operation.apply(Collections.singletonList(signer)));
+        }
+
+        List<Signer> signers = new ArrayList<>();
+        List<AbstractKeyStoreTokenConnection> tokens = new ArrayList<>();
+        try {
+            long[] slots;
+            try (Metrics.Phase phase = this.metrics.start("slotList")) {
+                slots = Pkcs11Slots.withTokens(pkcsPath);
+            }
+
+            if (slots.length == 0) {
+                throw new OperationException("No token found. Please check Settings and Help.");
+            }
+
+            long detachedThreshold = this.getDetachedThreshold(request);
+            PasswordCallback callback = new PasswordCallback(request);
+            DSSPrivateKeyEntry chosenKey = null;
+            for (long slot : slots) {
+                PasswordCallback tokenCallback = chosenKey == null ? callback : callback.forAnotherToken();
+                AbstractKeyStoreTokenConnection token;
+                try (Metrics.Phase phase = this.metrics.start("tokenLogin")) {
+                    token = new Pkcs11SignatureToken(pkcsPath, tokenCallback, (int) slot);
+                }
+                tokens.add(token);
+
+                DSSPrivateKeyEntry key;
+                if (chosenKey == null) {
+                    key = chosenKey = this.getPrivateKey(request, token, null, callback);
+                } else {
+                    try {
+                        key = this.findPrivateKey(token, chosenKey, tokenCallback);
+                    } catch (OperationException e) {
+                        if (!PasswordCallback.isWrongPassword(e)) {
+                            throw e;
+                        }
+
+                        // Different PIN is not guessed, so the token is not locked by the failed logins
+                        key = null;
+                    }
+                }
+
+                // Slots without the chosen certificate are not used
+                if (key != null) {
+                    Signer signer = new Signer(token, key, tspUrl);
+                    signer.setMetrics(this.metrics);
+                    signer.setPasswordCallback(tokenCallback);
+                    signer.setDetachedThreshold(detachedThreshold);
+                    signers.add(signer);
+                }
+            }
+
+            return operation.apply(signers);
+        } catch (OperationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new OperationException("Using of the PKCS #11 library failed:", e);
+        } finally {
+            tokens.forEach(AbstractKeyStoreTokenConnection::close);
+            this.metrics.print();
+        }
     }
 
-    private <Token extends AbstractKeyStoreTokenConnection> String sign(Token token, DSSDocument document, File file,
-            String tspUrl, Request request) {
-        DSSPrivateKeyEntry privateKey = this.getPrivateKey(request, token);
-        boolean useTsp = tspUrl != null;
-
-        // Create common certificate verifier
-        // TODO: Add trust for -LT/-LTA in the future
-        CommonCertificateVerifier commonCertificateVerifier = new CommonCertificateVerifier();
-
-        // TODO: Improve type safety
-        AbstractSignatureService service = null;
-        AbstractSignatureParameters parameters = null;
-        if (file.getName().endsWith(".pdf")) {
-            parameters = new PAdESSignatureParameters();
-            // We choose the level of the signature (-B, -T, -LT, -LTA).
-            parameters.setSignatureLevel(useTsp ? SignatureLevel.PAdES_BASELINE_T : SignatureLevel.PAdES_BASELINE_B);
-            parameters.setDigestAlgorithm(DigestAlgorithm.SHA256);
-            parameters.setSigningCertificate(privateKey.getCertificate());
-            parameters.setCertificateChain(privateKey.getCertificateChain());
-
-            service = new PAdESService(commonCertificateVerifier);
-        } else if (file.getName().endsWith(".xml")) {
-            parameters = new XAdESSignatureParameters();
-            // We choose the level of the signature (-B, -T, -LT, -LTA).
-            parameters.setSignatureLevel(useTsp ? SignatureLevel.XAdES_BASELINE_T : SignatureLevel.XAdES_BASELINE_B);
-            parameters.setSignaturePackaging(SignaturePackaging.ENVELOPED);
-            parameters.setDigestAlgorithm(DigestAlgorithm.SHA256);
-            parameters.setSigningCertificate(privateKey.getCertificate());
-            parameters.setCertificateChain(privateKey.getCertificateChain());
-
-            service = new XAdESService(commonCertificateVerifier);
-        } else {
-            ASiCWithCAdESSignatureParameters asicParameters = new ASiCWithCAdESSignatureParameters();
-            // We choose the level of the signature (-B, -T, -LT, -LTA).
-            asicParameters
-                    .setSignatureLevel(useTsp ? SignatureLevel.CAdES_BASELINE_T : SignatureLevel.CAdES_BASELINE_B);
-            asicParameters.aSiC().setContainerType(ASiCContainerType.ASiC_E);
-            asicParameters.setDigestAlgorithm(DigestAlgorithm.SHA256);
-            asicParameters.setSigningCertificate(privateKey.getCertificate());
-            asicParameters.setCertificateChain(privateKey.getCertificateChain());
-            parameters = asicParameters;
-
-            service = new ASiCWithCAdESService(commonCertificateVerifier);
+    /**
+     * @return threshold in MB or -1 if detached signing of large files is off
+     */
+    private long getDetachedThreshold(Request request) {
+        String threshold = request.option("detachedThreshold");
+        if (threshold == null || threshold.trim().isEmpty()) {
+            return -1;
         }
 
-        if (useTsp) {
-            // Create and set the TSP source
-            OnlineTSPSource tspSource = new OnlineTSPSource(tspUrl);
-            service.setTspSource(tspSource);
+        try {
+            return Long.parseLong(threshold.trim());
+        } catch (NumberFormatException e) {
+            throw new OperationException(
+                    "Detached signature size has to be a number of MB. Please check Settings and Help.");
         }
+    }
 
-        // Get the SignedInfo segment that need to be signed.
-        ToBeSigned dataToSign = service.getDataToSign(document, parameters);
+    private String getPkcsPath(Request request) {
+        String pkcsPath = request.option("pkcsPath");
+        boolean isWindows = System.getProperty("os.name").toLowerCase().indexOf("win") >= 0;
 
-        // This function obtains the signature value for signed information using the
-        // private key and specified algorithm
-        DigestAlgorithm digestAlgorithm = parameters.getDigestAlgorithm();
-        SignatureValue signatureValue = token.sign(dataToSign, digestAlgorithm, privateKey);
+        if (!isWindows && pkcsPath == null) {
+            throw new OperationException("PKCS #11/#12 path is not configured. Please check Settings and Help.");
+        }
 
-        // We invoke the PAdESService to sign the document with the signature value
-        // obtained in the previous step.
-        DSSDocument signedDocument = service.signDocument(document, parameters, signatureValue);
+        if (pkcsPath != null && !Files.exists(Paths.get(pkcsPath))) {
+            throw new OperationException("PKCS #11/#12 path doesn't exist. Please check Settings and Help.");
+        }
 
-        String path = request.prompt("save", "Save signed file as", file.getAbsolutePath());
+        return pkcsPath;
+    }
+
+    private int signSingle(Signer signer, String filePath, Request request) {
+        File file = new File(filePath);
+        DSSDocument signedDocument;
+        try {
+            signedDocument = signer.sign(file);
+        } catch (IOException e) {
+            throw new OperationException("There was an error reading the document:", e);
+        }
+
+        String defaultPath = signer.isStreamed(file) ? signer.getSignedFilePath(file.getAbsolutePath(), file)
+                : file.getAbsolutePath();
+        String path = request.prompt("save", "Save signed file as", defaultPath);
 
         if (path == null) {
-            System.err.println("Signed file path was not chosen.");
-            System.exit(1);
+            throw new OperationException("Signed file path was not chosen.");
         }
 
-        // Make sure file extension is correct
-        if (parameters instanceof ASiCWithCAdESSignatureParameters
-                && !(path.endsWith(".sce") || path.endsWith(".asice"))) {
-            path += ".sce";
-        } else if (file.getName().endsWith(".pdf") && !path.endsWith(".pdf")) {
-            path += ".pdf";
-        } else if (file.getName().endsWith(".xml") && !path.endsWith(".xml")) {
-            path += ".xml";
+        path = signer.getSignedFilePath(path, file);
+
+        try (Metrics.Phase phase = this.metrics.start("save")) {
+            signedDocument.save(path);
+            phase.addBytes(new File(path).length());
+        } catch (Exception e) {
+            throw new OperationException("There was an error saving the signed document:", e);
         }
 
+        System.out.println("--RESULT--");
+        System.out.println(path);
+        System.out.println("--RESULT--");
+
+        return 0;
+    }
+
+    /**
+     * Signs all the files without asking for the paths, signed files are saved
+     * next to the originals
+     *
+     * Every signer takes the next file from the shared queue on its own thread,
+     * so the throughput scales with the number of tokens. Files of each signer
+     * go through a {@link SigningPipeline} with octosign.signingPipelineDepth
+     * (default 2) files waiting between the steps.
+     */
+    private int signBatch(List<Signer> signers, List<String> filePaths) {
+        BatchReport report = new BatchReport();
+        Queue<String> queue = new ConcurrentLinkedQueue<>(filePaths);
+        int depth = (int) Config.getLong("signingPipelineDepth", 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(signers.size());
         try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (Signer signer : signers) {
+                workers.add(executor.submit(() -> {
+                    new SigningPipeline(signer, depth).run(queue::poll,
+                            (filePath, signedDocument) -> this.save(signer, filePath, signedDocument, report),
+                            (filePath, e) -> report.failure(filePath, "ERROR", String.valueOf(e.getMessage())));
+                    return null;
+                }));
+            }
+
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new OperationException("Signing was interrupted:", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        report.summary();
+
+        return report.isSuccessful() ? 0 : 1;
+    }
+
+    private void save(Signer signer, String filePath, DSSDocument signedDocument, BatchReport report)
+            throws IOException {
+        String path = signer.getDefaultSignedFilePath(new File(filePath));
+        try (Metrics.Phase phase = this.metrics.start("save")) {
             signedDocument.save(path);
+            phase.addBytes(new File(path).length());
+        }
+
+        report.success(filePath, "SIGNED", path);
+    }
+
+    private DigestDocument getDigestDocument(String digest, String fileName, String mimeType) {
+        if (digest == null || fileName == null) {
+            throw new OperationException("Digest and file name of the document are required.");
+        }
+
+        byte[] digestValue = null;
+        try {
+            digestValue = digest.matches("[0-9a-fA-F]{64}") ? Utils.fromHex(digest) : Utils.fromBase64(digest);
         } catch (Exception e) {
-            System.err.println("There was an error saving the signed document:");
-            System.err.println(e.getMessage());
-            System.exit(1);
+            // Reported below
+        }
+
+        // SHA-256 digest has 32 bytes
+        if (digestValue == null || digestValue.length != 32) {
+            throw new OperationException("Digest has to be SHA-256 in hex or Base64.");
         }
 
-        return path;
+        DigestDocument document = new DigestDocument(DigestAlgorithm.SHA256, Utils.toBase64(digestValue), fileName);
+        if (mimeType != null) {
+            document.setMimeType(MimeType.fromMimeTypeString(mimeType));
+        }
+
+        return document;
     }
 
-    private DSSPrivateKeyEntry getPrivateKey(Request request, AbstractKeyStoreTokenConnection token) {
-        List<DSSPrivateKeyEntry> keys;
+    private AbstractKeyStoreTokenConnection openToken(String pkcsPath, PasswordCallback callback) throws IOException {
+        try (Metrics.Phase phase = this.metrics.start("tokenLogin")) {
+            if (this.isPkcs12(pkcsPath)) {
+                // TODO: Can we check if file has no password so we don't ask for empty password?
+                return this.login(callback,
+                        () -> new Pkcs12SignatureToken(pkcsPath, new PasswordProtection(callback.getPassword())));
+            } else if (pkcsPath != null) {
+                // TODO: Let user choose the slot, see Pkcs11Slots
+                // Currently, default slot should be used if the int is negative
+                return new Pkcs11SignatureToken(pkcsPath, callback, -1);
+            }
+
+            return new MSCAPISignatureToken();
+        }
+    }
+
+    private boolean isPkcs12(String pkcsPath) {
+        return pkcsPath != null && (pkcsPath.endsWith(".p12") || pkcsPath.endsWith(".pfx"));
+    }
+
+    /**
+     * @return key of the token with the same certificate or null
+     */
+    private DSSPrivateKeyEntry findPrivateKey(AbstractKeyStoreTokenConnection token, DSSPrivateKeyEntry chosenKey,
+            PasswordCallback callback) {
+        List<DSSPrivateKeyEntry> keys = this.getKeys(token, callback);
+
+        return keys.stream().filter(key -> chosenKey.getCertificate().equals(key.getCertificate())).findAny()
+                .orElse(null);
+    }
+
+    /**
+     * With a stored inventory of the token, the certificates are offered at once.
+     * Tokens without a login left (PKCS #12, MS CAPI) enumerate their keys in the
+     * background meanwhile, PKCS #11 token logs in only once the certificate is
+     * chosen.
+     *
+     * @param tokenId identifies the token in the {@link KeyInventory} or null to
+     *                not use it
+     */
+    private DSSPrivateKeyEntry getPrivateKey(Request request, AbstractKeyStoreTokenConnection token, String tokenId,
+            PasswordCallback callback) {
+        KeyInventory inventory = tokenId != null ? KeyInventory.fromConfig() : null;
+        List<KeyInventory.Entry> entries = inventory != null ? inventory.get(tokenId) : null;
+
+        // There is nothing to choose from, live keys are needed right away
+        if (entries == null || entries.size() < 2) {
+            List<DSSPrivateKeyEntry> keys = this.getKeys(token, callback);
+            if (inventory != null) {
+                inventory.put(tokenId, keys);
+            }
+
+            return this.chooseKey(request, keys);
+        }
+
+        // No PIN is asked for or sent to the token before the certificate is chosen
+        CompletableFuture<List<DSSPrivateKeyEntry>> liveKeys = token instanceof Pkcs11SignatureToken ? null
+                : CompletableFuture.supplyAsync(() -> this.getKeys(token, callback));
+        String chosenId;
         try {
-            keys = token.getKeys();
+            chosenId = this.promptKey(request, entries);
+        } catch (OperationException e) {
+            if (liveKeys != null) {
+                // Token can't be closed while it is still enumerating
+                liveKeys.handle((keys, error) -> null).join();
+            }
+            throw e;
+        }
+
+        List<DSSPrivateKeyEntry> keys;
+        if (liveKeys == null) {
+            keys = this.getKeys(token, callback);
+        } else {
+            try {
+                keys = liveKeys.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof OperationException ? (OperationException) e.getCause() : e;
+            }
+        }
+        inventory.put(tokenId, keys);
+
+        DSSPrivateKeyEntry privateKey = this.findKey(keys, chosenId);
+
+        // Inventory was outdated, live keys are offered instead
+        return privateKey != null ? privateKey : this.chooseKey(request, keys);
+    }
+
+    /**
+     * PKCS #11 token logs in when it loads the keys
+     */
+    private List<DSSPrivateKeyEntry> getKeys(AbstractKeyStoreTokenConnection token, PasswordCallback callback) {
+        try (Metrics.Phase phase = this.metrics.start("getKeys")) {
+            return this.login(callback, token::getKeys);
         } catch (Exception e) {
-            System.err.println("Getting signing certificates failed. Please check Settings and Help. Error:");
-            System.err.println(e.getMessage());
-            System.exit(1);
-            return null;
+            throw new OperationException(
+                    "Getting signing certificates failed. Please check Settings and Help. Error:", e);
         }
+    }
 
+    /**
+     * Password is forgotten after every failed login and asked for again if it
+     * was wrong
+     */
+    private <T> T login(PasswordCallback callback, Supplier<T> login) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                return login.get();
+            } catch (RuntimeException e) {
+                callback.invalidate();
+                if (attempt >= PASSWORD_ATTEMPTS || callback.isCancelled() || !PasswordCallback.isWrongPassword(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private DSSPrivateKeyEntry chooseKey(Request request, List<DSSPrivateKeyEntry> keys) {
         // Automatically choose for the user if only one is available
         if (keys.size() == 1) {
             return keys.get(0);
         }
 
-        HashMap<String, String> keyOptions = new HashMap<String, String>();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        for (DSSPrivateKeyEntry key : keys) {
-            String dn = key.getCertificate().getSubjectX500Principal().getName("RFC2253");
-            String label = "";
-            try {
-                LdapName ldapDN = new LdapName(dn);
-                String dnName = "";
-                String dnCountry = "";
-                String dnCity = "";
-                String dnStreet = "";
-                String notBefore = dateFormat.format(key.getCertificate().getNotBefore());
-                String notAfter = dateFormat.format(key.getCertificate().getNotAfter());
-                for (Rdn rdn : ldapDN.getRdns()) {
-                    if (rdn.getType().equalsIgnoreCase("CN"))
-                        dnName = rdn.getValue().toString();
-                    if (rdn.getType().equalsIgnoreCase("C"))
-                        dnCountry = rdn.getValue().toString();
-                    if (rdn.getType().equalsIgnoreCase("L"))
-                        dnCity = rdn.getValue().toString();
-                    if (rdn.getType().equalsIgnoreCase("STREET"))
-                        dnStreet = rdn.getValue().toString();
-                }
+        DSSPrivateKeyEntry privateKey = this.findKey(keys, this.promptKey(request, KeyInventory.toEntries(keys)));
+        if (privateKey == null) {
+            throw new OperationException("Certificate was not chosen.");
+        }
 
-                label = String.format("%s, %s %s, %s (%s - %s)", dnName, dnCity, dnStreet, dnCountry, notBefore,
-                        notAfter);
-            } catch (Exception e) {
-                label = "Certificate SN: " + key.getCertificate().getCertificate().getSerialNumber().toString(16);
-            }
+        return privateKey;
+    }
 
-            keyOptions.put(key.getCertificate().getDSSId().asXmlId(), label);
+    private String promptKey(Request request, List<KeyInventory.Entry> entries) {
+        HashMap<String, String> keyOptions = new HashMap<String, String>();
+        for (KeyInventory.Entry entry : entries) {
+            keyOptions.put(entry.id, entry.label);
         }
+
         String chosenKey = request.prompt("single", "Please pick a certificate for signing", "", keyOptions);
         if (chosenKey == null) {
-            System.err.println("Certificate was not chosen.");
-            System.exit(1);
+            throw new OperationException("Certificate was not chosen.");
         }
 
-        DSSPrivateKeyEntry privateKey = keys.stream()
-                .filter(key -> chosenKey.equals(key.getCertificate().getDSSId().asXmlId())).findAny().orElse(null);
-
-        if (privateKey == null) {
-            System.err.println("Certificate was not chosen.");
-            System.exit(1);
-        }
+        return chosenKey;
+    }
 
-        return privateKey;
+    private DSSPrivateKeyEntry findKey(List<DSSPrivateKeyEntry> keys, String id) {
+        return keys.stream().filter(key -> id.equals(key.getCertificate().getDSSId().asXmlId())).findAny()
+                .orElse(null);
     }
 }
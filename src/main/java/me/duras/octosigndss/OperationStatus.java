@@ -0,0 +1,37 @@
+package me.duras.octosigndss;
+
+import java.time.Instant;
+
+import me.duras.octosigndss.trust.RevocationCache;
+import me.duras.octosigndss.trust.TrustLoader;
+
+/**
+ * State of the long-lived process started by the serve operation
+ */
+public class OperationStatus {
+    private TrustLoader trustLoader;
+    private RevocationCache revocationCache;
+
+    public OperationStatus(TrustLoader trustLoader, RevocationCache revocationCache) {
+        this.trustLoader = trustLoader;
+        this.revocationCache = revocationCache;
+    }
+
+    public int run() {
+        long lastRefreshSuccess = this.trustLoader.getLastRefreshSuccess();
+        String lastRefreshError = this.trustLoader.getLastRefreshError();
+
+        System.out.println("--RESULT--");
+        System.out.println("OK");
+        System.out.println("tlRefreshLastSuccess:"
+                + (lastRefreshSuccess < 0 ? "" : Instant.ofEpochMilli(lastRefreshSuccess).toString()));
+        System.out.println("tlRefreshDuration:" + this.trustLoader.getLastRefreshDuration());
+        System.out.println("tlRefreshCriticalPath:" + this.trustLoader.getLastRefreshCriticalPath());
+        System.out.println("tlRefreshError:" + (lastRefreshError == null ? "" : lastRefreshError));
+        System.out.println("revocationCacheHits:" + this.revocationCache.getHits());
+        System.out.println("revocationCacheMisses:" + this.revocationCache.getMisses());
+        System.out.println("--RESULT--");
+
+        return 0;
+    }
+}
@@ -1,167 +1,391 @@
 package me.duras.octosigndss;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.diagnostic.RevocationWrapper;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
 import eu.europa.esig.dss.model.DSSDocument;
 import eu.europa.esig.dss.model.FileDocument;
 import eu.europa.esig.dss.model.x509.CertificateToken;
 import eu.europa.esig.dss.service.crl.OnlineCRLSource;
 import eu.europa.esig.dss.service.http.commons.CommonsDataLoader;
+import eu.europa.esig.dss.service.http.commons.FileCacheDataLoader;
 import eu.europa.esig.dss.service.ocsp.OnlineOCSPSource;
+import eu.europa.esig.dss.spi.client.http.DataLoader;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLSource;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPSource;
 import eu.europa.esig.dss.simplereport.SimpleReport;
-import eu.europa.esig.dss.spi.client.http.IgnoreDataLoader;
 import eu.europa.esig.dss.spi.tsl.TrustedListsCertificateSource;
 import eu.europa.esig.dss.validation.AdvancedSignature;
 import eu.europa.esig.dss.validation.CertificateVerifier;
 import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.validation.SignatureCryptographicVerification;
 import eu.europa.esig.dss.validation.SignedDocumentValidator;
 import eu.europa.esig.dss.validation.executor.ValidationLevel;
 import eu.europa.esig.dss.validation.reports.Reports;
-import me.duras.octosigndss.trust.IgnoreCrlSource;
-import me.duras.octosigndss.trust.IgnoreOcspSource;
-import me.duras.octosigndss.trust.LazyTLValidationJob;
+import me.duras.octosigndss.trust.CachedCRLSource;
+import me.duras.octosigndss.trust.CachedOCSPSource;
+import me.duras.octosigndss.trust.CountryParser;
+import me.duras.octosigndss.trust.RevocationCache;
 import me.duras.octosigndss.trust.TrustLoader;
 
 public class OperationVerify {
-    public void run(String filePath) {
-        if (!(filePath.endsWith(".pdf") || filePath.endsWith(".xml") || filePath.endsWith(".asice") || filePath.endsWith(".sce"))) {
-            System.out.println("--RESULT--");
-            System.out.println("UNKNOWN");
-            System.out.println("--RESULT--");
-            System.exit(0);
+    private static final long AIA_CACHE_EXPIRATION = TimeUnit.DAYS.toMillis(1);
+
+    private TrustLoader trustLoader;
+    private RevocationCache revocationCache;
+    private ResultCache resultCache;
+
+    private DataLoader dataLoader;
+    private OCSPSource ocspSource;
+    private CRLSource crlSource;
+
+    private Metrics metrics = Metrics.fromConfig();
+
+    public OperationVerify(TrustLoader trustLoader, RevocationCache revocationCache) {
+        this(trustLoader, revocationCache, null);
+    }
+
+    /**
+     * @param resultCache results of the previous validations or null to always
+     *                    validate
+     */
+    public OperationVerify(TrustLoader trustLoader, RevocationCache revocationCache, ResultCache resultCache) {
+        this.trustLoader = trustLoader;
+        this.revocationCache = revocationCache;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Verifies one file or, for a directory or multiple files, all of them in
+     * parallel
+     *
+     * Results of a batch are printed as soon as each file is done, in the order
+     * of completion.
+     */
+    public int run(List<String> paths) {
+        if (paths.size() == 1 && !new File(paths.get(0)).isDirectory()) {
+            return this.run(paths.get(0));
         }
 
+        List<String> filePaths;
         try {
-            DSSDocument document = new FileDocument(filePath);
-
-            // TODO: Find out how we can do this without using two document validators
-            // See https://github.com/durasj/octosign-dss/issues/8
-            Set<String> countries = getDocumentCertificateCountries(document);
-    
-            if (countries.size() == 0) {
-                System.out.println("--RESULT--");
-                System.out.println("UNSIGNED");
-                System.out.println("--RESULT--");
-                System.exit(0);
-            }
-    
-            SignedDocumentValidator documentValidator = SignedDocumentValidator.fromDocument(document);
-    
-            CertificateVerifier cv = new CommonCertificateVerifier();
-            // Capability to download resources from AIA
-            cv.setDataLoader(new CommonsDataLoader());
-            // Capability to request OCSP Responders
-            cv.setOcspSource(new OnlineOCSPSource());
-            // Capability to download CRL
-            cv.setCrlSource(new OnlineCRLSource());
-            // Use EU Trusted Certificate Lists
-            cv.setTrustedCertSource(getTrustedCertificateSource(countries));
-            documentValidator.setCertificateVerifier(cv);
-    
-            documentValidator.setValidationLevel(ValidationLevel.TIMESTAMPS);
-    
-            Reports reports = documentValidator.validateDocument();
-    
-            SimpleReport report = reports.getSimpleReport();
-            String details = "";
-            for (String id : report.getSignatureIdList()) {
-                details += "### t{Signed by} " + report.getSignedBy(id) + "\n\n";
-                details += "**t{Validity}**: t{" + getHumanReadableIndication(report.getIndication(id)) + "}\n\n";
-                details += "**t{Date and time}**: " + report.getSigningTime(id) + "\n\n";
-                details += "**t{Qualification}**: t{" + report.getSignatureQualification(id).getLabel() + "}\n\n";
-                details += "**t{Chain of trust}**: " + report.getCertificateChain(id).getCertificate().stream()
-                        .map((cert) -> cert.getQualifiedName()).collect(Collectors.joining(" > ")) + "\n\n";
-    
-                List<String> errors = report.getErrors(id);
-                if (errors.size() > 0) {
-                    details += "**t{Potential problems}**: \n\n";
-                    int errorNumber = 1;
-                    for (String err : errors) {
-                        details += errorNumber + ". " + err + "\n\n";
-                        errorNumber++;
+            filePaths = OperationVerify.getFilePaths(paths);
+        } catch (IOException e) {
+            throw new OperationException("Listing of the files failed:", e);
+        }
+
+        BatchReport report = new BatchReport();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (String filePath : filePaths) {
+                pool.execute(() -> {
+                    try {
+                        Result result = this.verify(filePath);
+                        StringBuilder details = new StringBuilder();
+                        if (result.report != null) {
+                            ReportWriter.fromConfig(details).write(result.report, result.notes);
+                        }
+                        report.success(filePath, result.status, details.toString());
+                    } catch (Exception e) {
+                        report.failure(filePath, "UNKNOWN", String.valueOf(e.getMessage()));
                     }
-                }
-    
-                details += "\n\n";
-            }
-    
-            String status = "UNKNOWN";
-            if (report.getSignaturesCount() == 0) {
-                status = "UNSIGNED";
-            } else if (report.getSignaturesCount() == report.getValidSignaturesCount()) {
-                status = "SIGNED";
-            } else if (report.getSignaturesCount() > report.getValidSignaturesCount()) {
-                status = "INVALID";
+                });
             }
-    
-            System.out.println("--RESULT--");
-            System.out.println(status);
-            System.out.println(details);
-            System.out.println("--RESULT--");
-            System.exit(0);
+
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        this.metrics.print();
+        report.summary();
+
+        return report.isSuccessful() ? 0 : 1;
+    }
+
+    /**
+     * With the progressiveVerify setting, a preliminary result framed by
+     * --PRELIMINARY-- is printed first, once the signatures are parsed, based
+     * only on their cryptographic checks. The full validation continues with the
+     * same parsed signatures.
+     */
+    public int run(String filePath) {
+        Consumer<Result> preliminary = null;
+        if (Config.getBoolean("progressiveVerify", false)) {
+            preliminary = (integrity) -> {
+                this.print("PRELIMINARY", integrity);
+                System.out.flush();
+            };
+        }
+
+        this.print("RESULT", this.verifyOrUnknown(filePath, preliminary));
+        this.metrics.print();
+        return 0;
+    }
+
+    private Result verifyOrUnknown(String filePath, Consumer<Result> preliminary) {
+        try {
+            return this.verify(filePath, preliminary);
         } catch (Exception e) {
             System.err.println("Verifying failed:");
             System.err.println(e.getMessage());
 
-            System.out.println("--RESULT--");
-            System.out.println("UNKNOWN");
-            System.out.println("--RESULT--");
-            System.exit(0);
+            return new Result("UNKNOWN");
+        }
+    }
+
+    private void print(String delimiter, Result result) {
+        System.out.println("--" + delimiter + "--");
+        System.out.println(result.status);
+        // Preliminary result has only the notes, they are in the same format as the full report
+        if (result.report != null || !result.notes.isEmpty()) {
+            ReportWriter.fromConfig(System.out).write(result.report, result.notes);
+            System.out.println();
         }
+        System.out.println("--" + delimiter + "--");
+    }
+
+    /**
+     * Quick verdict without the network - only the signature values and the
+     * digests of the signed data are checked, not the trust or revocation
+     *
+     * Integrity checks are kept by the signatures and reused by the validation.
+     */
+    private Result verifyIntegrity(List<AdvancedSignature> signatures) {
+        boolean isIntact;
+        try (Metrics.Phase phase = this.metrics.start("validateIntegrity")) {
+            isIntact = signatures.stream().map(AdvancedSignature::getSignatureCryptographicVerification)
+                    .allMatch(SignatureCryptographicVerification::isSignatureValid);
+        }
+
+        return new Result(isIntact ? "SIGNED" : "INVALID", null, Collections
+                .singletonList("Preliminary result, trust and revocation of the certificates are still being checked."));
+    }
+
+    Result verify(String filePath) throws Exception {
+        return this.verify(filePath, null);
     }
 
-    private TrustedListsCertificateSource getTrustedCertificateSource(Set<String> requiredCountries) {
-        TrustLoader loader = new TrustLoader();
-        loader.load(requiredCountries);
-        return loader.getTrustedCertificateSource();
+    /**
+     * Safe to call from multiple threads, certificate and revocation sources are
+     * shared
+     *
+     * Result of the same document is reused while the trusted lists and the
+     * revocation data used for it don't change. The reused result is looked up
+     * by the digest of the document before it is parsed.
+     *
+     * @param preliminary receives the integrity verdict before the trust and
+     *                    revocation are checked, null to skip it
+     */
+    Result verify(String filePath, Consumer<Result> preliminary) throws Exception {
+        if (!OperationVerify.isSupported(filePath)) {
+            return new Result("UNKNOWN");
+        }
+
+        if (this.resultCache == null) {
+            return this.validate(filePath, preliminary, null);
+        }
+
+        String documentDigest;
+        try (Metrics.Phase phase = this.metrics.start("digest")) {
+            File file = new File(filePath);
+            documentDigest = Signer.digest(file, DigestAlgorithm.SHA256).getDigest(DigestAlgorithm.SHA256);
+            phase.addBytes(file.length());
+        }
+
+        // Version of the published trusted lists, they have to cover the countries of the result
+        String trustVersion = this.trustLoader.getTrustVersion(this.trustLoader.getTrustedCertificateSource());
+        Result result = this.resultCache.get(documentDigest, trustVersion, this.trustLoader::isLoaded);
+        if (result != null) {
+            return result;
+        }
+
+        return this.validate(filePath, preliminary, documentDigest);
     }
 
-    private Set<String> getDocumentCertificateCountries(DSSDocument document) {
+    /**
+     * @param documentDigest digest to store the result under or null to not
+     *                       store it
+     */
+    private Result validate(String filePath, Consumer<Result> preliminary, String documentDigest)
+            throws Exception {
+        Metrics.Phase parsePhase = this.metrics.start("parse");
+        DSSDocument document = new FileDocument(filePath);
         SignedDocumentValidator documentValidator = SignedDocumentValidator.fromDocument(document);
-        CertificateVerifier cv = new CommonCertificateVerifier();
-        cv.setDataLoader(new IgnoreDataLoader());
-        cv.setCrlSource(new IgnoreCrlSource());
-        cv.setOcspSource(new IgnoreOcspSource());
+        parsePhase.addBytes(new File(filePath).length());
 
-        // Dummy certificate source just so that we can proceed
+        CertificateVerifier cv = new CommonCertificateVerifier();
+        this.initSources();
+        // Capability to download resources from AIA
+        cv.setDataLoader(this.dataLoader);
+        // Capability to request OCSP Responders, reusing still valid responses
+        cv.setOcspSource(this.ocspSource);
+        // Capability to download CRL, reusing still valid CRLs
+        cv.setCrlSource(this.crlSource);
+        // Empty until we know which EU Trusted Certificate Lists are needed
         cv.setTrustedCertSource(new TrustedListsCertificateSource());
         documentValidator.setCertificateVerifier(cv);
 
+        // The same validator and its parsed signatures are used for the validation
+        Set<String> countries = getSignatureCertificateCountries(documentValidator.getSignatures());
+        parsePhase.close();
+
+        if (countries.size() == 0) {
+            return new Result("UNSIGNED");
+        }
+
+        if (preliminary != null) {
+            try {
+                preliminary.accept(this.verifyIntegrity(documentValidator.getSignatures()));
+            } catch (Exception e) {
+                // The full result is what matters
+            }
+        }
+
+        // Use EU Trusted Certificate Lists
+        boolean isTrustUpToDate;
+        try (Metrics.Phase phase = this.metrics.start("tlLoad")) {
+            isTrustUpToDate = this.trustLoader.load(countries);
+        }
+        TrustedListsCertificateSource trustedSource = this.trustLoader.getTrustedCertificateSource();
+        cv.setTrustedCertSource(trustedSource);
+        // Validator builds its certificate pool from the verifier when it is set, so it has to be set again
+        documentValidator.setCertificateVerifier(cv);
+
+        // Results are identified by the trusted lists actually used, incomplete or outdated ones are not cached
+        String trustVersion = isTrustUpToDate ? this.trustLoader.getTrustVersion(trustedSource) : null;
+
+        documentValidator.setValidationLevel(ValidationLevel.TIMESTAMPS);
+
+        // Includes the OCSP and CRL requests
+        Reports reports;
+        try (Metrics.Phase phase = this.metrics.start("validate")) {
+            reports = documentValidator.validateDocument();
+        }
+
+        SimpleReport report = reports.getSimpleReport();
+        List<String> notes = new ArrayList<>();
+        if (!isTrustUpToDate) {
+            notes.add("Trusted lists could not be updated in time, cached trusted lists were used.");
+        }
+
+        String status = "UNKNOWN";
+        if (report.getSignaturesCount() == 0) {
+            status = "UNSIGNED";
+        } else if (report.getSignaturesCount() == report.getValidSignaturesCount()) {
+            status = "SIGNED";
+        } else if (report.getSignaturesCount() > report.getValidSignaturesCount()) {
+            status = "INVALID";
+        }
+
+        // Result is valid only as long as all the revocation data used for it
+        long validUntil = Long.MAX_VALUE;
+        for (RevocationWrapper revocation : reports.getDiagnosticData().getAllRevocationData()) {
+            if (revocation.getNextUpdate() != null) {
+                validUntil = Math.min(validUntil, revocation.getNextUpdate().getTime());
+            }
+        }
+
+        Result result = new Result(status, report, notes, validUntil);
+        if (documentDigest != null) {
+            this.resultCache.put(documentDigest, trustVersion, countries, result);
+        }
+
+        return result;
+    }
+
+    private synchronized void initSources() {
+        if (this.dataLoader != null) {
+            return;
+        }
+
+        // Issuer certificates from AIA are downloaded once for all the documents
+        FileCacheDataLoader dataLoader = new FileCacheDataLoader(new CommonsDataLoader());
+        dataLoader.setFileCacheDirectory(new File(System.getProperty("java.io.tmpdir"), "octosign-aia-cache"));
+        dataLoader.setCacheExpirationTime(AIA_CACHE_EXPIRATION);
+        this.dataLoader = dataLoader;
+        // Only the requests not answered from the cache are measured
+        this.ocspSource = new CachedOCSPSource(this.metrics.measure(new OnlineOCSPSource()), this.revocationCache);
+        this.crlSource = new CachedCRLSource(this.metrics.measure(new OnlineCRLSource()), this.revocationCache);
+    }
+
+    /**
+     * Expands directories to the supported files inside them
+     */
+    static List<String> getFilePaths(List<String> paths) throws IOException {
+        List<String> filePaths = new ArrayList<>();
+        for (String path : paths) {
+            if (!new File(path).isDirectory()) {
+                filePaths.add(path);
+                continue;
+            }
+
+            try (Stream<Path> files = Files.walk(Paths.get(path))) {
+                files.filter(Files::isRegularFile).map(Path::toString).filter(OperationVerify::isSupported)
+                        .sorted().forEach(filePaths::add);
+            }
+        }
+
+        return filePaths;
+    }
+
+    static boolean isSupported(String filePath) {
+        return filePath.endsWith(".pdf") || filePath.endsWith(".xml") || filePath.endsWith(".asice")
+                || filePath.endsWith(".sce");
+    }
+
+    static Set<String> getSignatureCertificateCountries(List<AdvancedSignature> signatures) {
         Set<String> certificateCountries = new HashSet<String>();
-        List<AdvancedSignature> signatures = documentValidator.getSignatures();
         for (AdvancedSignature signature : signatures) {
             List<CertificateToken> certificates = signature.getCertificateListWithinSignatureAndTimestamps();
             for (CertificateToken cert : certificates) {
-                Matcher matcher = LazyTLValidationJob.canonicalizedCountryPattern
-                        .matcher(cert.getCanonicalizedSubject());
-                if (matcher.find())
-                    certificateCountries.add(matcher.group(1));
+                String country = CountryParser.parse(cert.getCanonicalizedSubject());
+                if (country != null)
+                    certificateCountries.add(country);
             }
         }
 
         return certificateCountries;
     }
 
-    private String getHumanReadableIndication(Indication indication) {
-        switch (indication) {
-            case TOTAL_PASSED:
-            case PASSED:
-                return "Valid";
+    static class Result {
+        final String status;
+        final SimpleReport report;
+        final List<String> notes;
 
-            case TOTAL_FAILED:
-            case FAILED:
-                return "Invalid";
+        /**
+         * Time in ms since the epoch until which the result can be reused
+         */
+        final long validUntil;
 
-            case INDETERMINATE:
-                return "Indeterminate";
+        Result(String status) {
+            this(status, null, Collections.emptyList(), Long.MAX_VALUE);
+        }
+
+        Result(String status, SimpleReport report, List<String> notes) {
+            this(status, report, notes, Long.MAX_VALUE);
+        }
 
-            default:
-                return "Unknown";
+        Result(String status, SimpleReport report, List<String> notes, long validUntil) {
+            this.status = status;
+            this.report = report;
+            this.notes = notes;
+            this.validUntil = validUntil;
         }
     }
 }
@@ -1,18 +1,89 @@
 package me.duras.octosigndss;
 
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
+
 import eu.europa.esig.dss.token.PasswordInputCallback;
 
+/**
+ * Asks for the password only once, the answer is reused for the rest of the
+ * token session
+ *
+ * Password is forgotten after a failed login, so the next keystore load asks
+ * for it again instead of repeating the wrong one.
+ */
 public class PasswordCallback implements PasswordInputCallback {
     Request request;
+    private char[] password;
+    private boolean cancelled = false;
 
     public PasswordCallback(Request request) {
         this.request = request;
     }
 
+    /**
+     * Can be called from a background thread, the prompt waits until the other
+     * prompts of the request are answered
+     */
     @Override
     public char[] getPassword() {
-        String password = this.request.prompt("password", "Please provide the key password.", "");
+        synchronized (this.request) {
+            if (this.password == null) {
+                String password = this.cancelled ? null
+                        : this.request.prompt("password", "Please provide the key password.", "");
+                // Without an answer, the empty password is used and not asked for again
+                this.cancelled = this.cancelled || password == null;
+                this.password = password != null ? password.toCharArray() : "".toCharArray();
+            }
+
+            return this.password.clone();
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (this.request) {
+            return this.cancelled;
+        }
+    }
+
+    /**
+     * Used for another token once the password logged into this one, the copy
+     * never asks for the password and the empty one is used if there was none
+     */
+    public PasswordCallback forAnotherToken() {
+        synchronized (this.request) {
+            PasswordCallback callback = new PasswordCallback(this.request);
+            callback.password = this.password != null ? this.password.clone() : null;
+            callback.cancelled = true;
+            return callback;
+        }
+    }
+
+    /**
+     * Forgets the password after a failed login or keystore reload
+     */
+    public void invalidate() {
+        synchronized (this.request) {
+            if (this.password != null) {
+                Arrays.fill(this.password, '\0');
+                this.password = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if the error or any of its causes is a wrong password (PKCS
+     *         #12) or PIN (PKCS #11)
+     */
+    public static boolean isWrongPassword(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            String message = String.valueOf(cause.getMessage());
+            if (cause instanceof UnrecoverableKeyException || message.contains("CKR_PIN_INCORRECT")
+                    || message.contains("CKR_PIN_LEN_RANGE") || message.contains("password was incorrect")) {
+                return true;
+            }
+        }
 
-        return password != null ? password.toCharArray() : "".toCharArray();
+        return false;
     }
 }
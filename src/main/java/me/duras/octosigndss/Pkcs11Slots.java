@@ -0,0 +1,70 @@
+package me.duras.octosigndss;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lists the PKCS #11 slots using the JDK PKCS #11 wrapper
+ *
+ * The wrapper is internal to the jdk.crypto.cryptoki module, so it is used by
+ * reflection and requires --add-exports
+ * jdk.crypto.cryptoki/sun.security.pkcs11.wrapper=ALL-UNNAMED. The library is
+ * initialized only once per process, SunPKCS11 providers opened later reuse it.
+ * So it is initialized the same way SunPKCS11 does it, with the OS locking, and
+ * the tokens can be used from multiple threads.
+ */
+public class Pkcs11Slots {
+    private static final String WRAPPER_PACKAGE = "sun.security.pkcs11.wrapper.";
+    private static final long CKF_TOKEN_INITIALIZED = 0x00000400L;
+    private static final long CKF_OS_LOCKING_OK = 0x00000002L;
+
+    /**
+     * @param pkcsPath path to the PKCS #11 library
+     * @return IDs of the slots with an initialized token present
+     *         (C_GetSlotList, C_GetTokenInfo)
+     */
+    public static long[] withTokens(String pkcsPath) throws Exception {
+        return Pkcs11Slots.getTokenSerials(pkcsPath).keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @param pkcsPath path to the PKCS #11 library
+     * @return serial numbers of the initialized tokens present by the slot IDs
+     */
+    public static Map<Long, String> getTokenSerials(String pkcsPath) throws Exception {
+        Class<?> pkcs11Class = Class.forName(WRAPPER_PACKAGE + "PKCS11");
+        Class<?> initArgsClass = Class.forName(WRAPPER_PACKAGE + "CK_C_INITIALIZE_ARGS");
+
+        try {
+            Method getInstance = pkcs11Class.getMethod("getInstance", String.class, String.class, initArgsClass,
+                    boolean.class);
+            Object initArgs = initArgsClass.getConstructor().newInstance();
+            initArgsClass.getField("flags").setLong(initArgs, CKF_OS_LOCKING_OK);
+            Object pkcs11 = getInstance.invoke(null, pkcsPath, "C_GetFunctionList", initArgs, false);
+
+            long[] slots = (long[]) pkcs11Class.getMethod("C_GetSlotList", boolean.class).invoke(pkcs11, true);
+
+            Method getTokenInfo = pkcs11Class.getMethod("C_GetTokenInfo", long.class);
+            Map<Long, String> serials = new LinkedHashMap<>();
+            for (long slot : slots) {
+                try {
+                    Object tokenInfo = getTokenInfo.invoke(pkcs11, slot);
+                    long flags = tokenInfo.getClass().getField("flags").getLong(tokenInfo);
+                    if ((flags & CKF_TOKEN_INITIALIZED) != 0) {
+                        char[] serial = (char[]) tokenInfo.getClass().getField("serialNumber").get(tokenInfo);
+                        serials.put(slot, new String(serial).trim());
+                    }
+                } catch (Exception e) {
+                    // Token removed in the meantime or not usable
+                }
+            }
+
+            return serials;
+        } catch (InvocationTargetException e) {
+            // PKCS11Exception carries the library error code in its message
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package me.duras.octosigndss;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import eu.europa.esig.dss.diagnostic.jaxb.XmlCertificate;
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.enumerations.SubIndication;
+import eu.europa.esig.dss.simplereport.SimpleReport;
+
+/**
+ * Writes the details of the verification result straight to the output
+ *
+ * The format is chosen by the reportFormat setting: "markdown" (default) for
+ * the user, with strings to translate marked by t{...}, or "json" for tools.
+ * Line ending after the details is up to the caller.
+ */
+public class ReportWriter {
+    private final Appendable out;
+    private final boolean json;
+
+    public ReportWriter(Appendable out, String format) {
+        this.out = out;
+        this.json = "json".equalsIgnoreCase(format);
+    }
+
+    public static ReportWriter fromConfig(Appendable out) {
+        return new ReportWriter(out, Config.get("reportFormat", "markdown"));
+    }
+
+    /**
+     * @param report simple report of the validation or null if there is none
+     *               yet, for example for the preliminary result
+     * @param notes  untranslated notes shown before the signatures
+     */
+    public void write(SimpleReport report, List<String> notes) {
+        try {
+            if (this.json) {
+                this.writeJson(report, notes);
+            } else {
+                this.writeMarkdown(report, notes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeMarkdown(SimpleReport report, List<String> notes) throws IOException {
+        for (String note : notes) {
+            out.append("**t{Note}**: t{").append(note).append("}\n\n");
+        }
+
+        if (report == null) {
+            return;
+        }
+
+        for (String id : report.getSignatureIdList()) {
+            out.append("### t{Signed by} ").append(report.getSignedBy(id)).append("\n\n");
+            out.append("**t{Validity}**: t{").append(getHumanReadableIndication(report.getIndication(id)))
+                    .append("}\n\n");
+            out.append("**t{Date and time}**: ").append(String.valueOf(report.getSigningTime(id))).append("\n\n");
+            out.append("**t{Qualification}**: t{").append(report.getSignatureQualification(id).getLabel())
+                    .append("}\n\n");
+
+            out.append("**t{Chain of trust}**: ");
+            String separator = "";
+            for (XmlCertificate certificate : report.getCertificateChain(id).getCertificate()) {
+                out.append(separator).append(certificate.getQualifiedName());
+                separator = " > ";
+            }
+            out.append("\n\n");
+
+            List<String> errors = report.getErrors(id);
+            if (errors.size() > 0) {
+                out.append("**t{Potential problems}**: \n\n");
+                int errorNumber = 1;
+                for (String err : errors) {
+                    out.append(String.valueOf(errorNumber)).append(". ").append(err).append("\n\n");
+                    errorNumber++;
+                }
+            }
+
+            out.append("\n\n");
+        }
+    }
+
+    private void writeJson(SimpleReport report, List<String> notes) throws IOException {
+        out.append("{\"notes\":");
+        this.writeJsonArray(notes);
+        out.append(",\"signatures\":[");
+
+        String separator = "";
+        List<String> ids = report != null ? report.getSignatureIdList() : Collections.emptyList();
+        for (String id : ids) {
+            out.append(separator).append("{\"id\":");
+            this.writeJsonString(id);
+            out.append(",\"signedBy\":");
+            this.writeJsonString(report.getSignedBy(id));
+            out.append(",\"indication\":");
+            Indication indication = report.getIndication(id);
+            this.writeJsonString(indication != null ? indication.name() : null);
+            out.append(",\"subIndication\":");
+            SubIndication subIndication = report.getSubIndication(id);
+            this.writeJsonString(subIndication != null ? subIndication.name() : null);
+            out.append(",\"signingTime\":");
+            Date signingTime = report.getSigningTime(id);
+            this.writeJsonString(signingTime != null ? signingTime.toInstant().toString() : null);
+            out.append(",\"qualification\":");
+            this.writeJsonString(report.getSignatureQualification(id).name());
+
+            out.append(",\"certificateChain\":[");
+            String certificateSeparator = "";
+            for (XmlCertificate certificate : report.getCertificateChain(id).getCertificate()) {
+                out.append(certificateSeparator).append("{\"id\":");
+                this.writeJsonString(certificate.getId());
+                out.append(",\"qualifiedName\":");
+                this.writeJsonString(certificate.getQualifiedName());
+                out.append("}");
+                certificateSeparator = ",";
+            }
+            out.append("]");
+
+            out.append(",\"errors\":");
+            this.writeJsonArray(report.getErrors(id));
+            out.append(",\"warnings\":");
+            this.writeJsonArray(report.getWarnings(id));
+            out.append("}");
+            separator = ",";
+        }
+
+        out.append("]}");
+    }
+
+    private void writeJsonArray(List<String> values) throws IOException {
+        out.append("[");
+        String separator = "";
+        for (String value : values) {
+            out.append(separator);
+            this.writeJsonString(value);
+            separator = ",";
+        }
+        out.append("]");
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            switch (character) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        out.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        out.append(character);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static String getHumanReadableIndication(Indication indication) {
+        switch (indication) {
+            case TOTAL_PASSED:
+            case PASSED:
+                return "Valid";
+
+            case TOTAL_FAILED:
+            case FAILED:
+                return "Invalid";
+
+            case INDETERMINATE:
+                return "Indeterminate";
+
+            default:
+                return "Unknown";
+        }
+    }
+}
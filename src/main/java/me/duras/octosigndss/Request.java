@@ -1,9 +1,17 @@
 package me.duras.octosigndss;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.stream.Collectors;
 
+/**
+ * Questions for the other side of the standard input and output
+ *
+ * Questions are synchronized, so they can be asked from multiple threads, one
+ * at a time.
+ */
 public class Request {
     Scanner scanner;
 
@@ -11,7 +19,7 @@ public class Request {
         this.scanner = scanner;
     }
 
-    public String prompt(String promptType, String question, String defaultValue) {
+    public synchronized String prompt(String promptType, String question, String defaultValue) {
         System.out.println("--PROMPT--");
         System.out.format("%s\"%s\"(\"%s\")\n", promptType, question, defaultValue);
         System.out.println("--PROMPT--");
@@ -19,7 +27,7 @@ public class Request {
         return this.handleAnswer("PROMPT");
     }
 
-    public String prompt(String promptType, String question, String defaultValue, Map<String, String> options) {
+    public synchronized String prompt(String promptType, String question, String defaultValue, Map<String, String> options) {
         String preparedOptions = options.entrySet().stream()
             .map((entry) -> String.format("%s\"%s\"", entry.getKey(), entry.getValue()))
             .collect(Collectors.joining(" "));
@@ -31,7 +39,7 @@ public class Request {
         return this.handleAnswer("PROMPT");
     }
 
-    public String option(String id) {
+    public synchronized String option(String id) {
         System.out.println("--GETOPTION--");
         System.out.println(id);
         System.out.println("--GETOPTION--");
@@ -39,7 +47,41 @@ public class Request {
         return this.handleAnswer("GETOPTION");
     }
 
+    /**
+     * Waits for the next operation with one argument per line, for example:
+     * --OPERATION--, sign, /path/to/file.pdf, --OPERATION--
+     *
+     * @return operation arguments or null if the input was closed
+     */
+    public String[] operation() {
+        System.out.flush();
+
+        List<String> args = null;
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine().trim();
+
+            if (line.equals("--OPERATION--")) {
+                if (args != null) {
+                    return args.toArray(new String[0]);
+                }
+
+                args = new ArrayList<String>();
+            } else if (args != null && !line.isEmpty()) {
+                args.add(line);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @throws OperationException if the input was closed before the answer, the
+     *                            operation fails and serve ends with the input
+     */
     private String handleAnswer(String delimiter) {
+        // The other side has to see the question before it can answer
+        System.out.flush();
+
         String answer = null;
         boolean isAnswer = false;
         while (scanner.hasNextLine()) {
@@ -59,6 +101,10 @@ public class Request {
             }
         }
 
+        if (answer == null) {
+            throw new OperationException("Input was closed before the answer.");
+        }
+
         return answer.isEmpty() ? null : answer;
     }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package me.duras.octosigndss;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.crypto.Mac;
+
+import eu.europa.esig.dss.simplereport.SimpleReport;
+import eu.europa.esig.dss.simplereport.SimpleReportFacade;
+import eu.europa.esig.dss.utils.Utils;
+import me.duras.octosigndss.OperationVerify.Result;
+import me.duras.octosigndss.trust.PrivateStorage;
+
+/**
+ * Disk-backed cache of the verification results
+ *
+ * Result of a document (identified by its SHA-256 digest) is reused while the
+ * trusted lists of its countries are loaded and didn't change, none of the used
+ * OCSP responses or CRLs reached its next update and the result is not older
+ * than the maximum age. Results with notes (for example outdated trusted lists)
+ * are not stored.
+ *
+ * Entries are authenticated by an HMAC over the document digest and the entry,
+ * so a result can't be planted for a document or moved to another one.
+ */
+public class ResultCache {
+    private File directory;
+    private File keyFile;
+    private long maxAge;
+
+    /**
+     * @param directory where the results are stored, it should be accessible
+     *                  only by the current user, see {@link PrivateStorage}
+     * @param keyFile   key of the HMAC, see {@link PrivateStorage#getKeyFile()}
+     * @param maxAge    how long (in minutes) the result can be reused at most
+     */
+    public ResultCache(File directory, File keyFile, long maxAge) {
+        this.directory = directory;
+        this.keyFile = keyFile;
+        this.maxAge = TimeUnit.MINUTES.toMillis(maxAge);
+
+        directory.mkdirs();
+    }
+
+    /**
+     * @param documentDigest Base64 SHA-256 digest of the document
+     * @param trustVersion   version of the published trusted lists, see
+     *                       {@link me.duras.octosigndss.trust.TrustLoader#getTrustVersion}
+     * @param isTrustLoaded  whether the trusted lists of the countries of the
+     *                       result are loaded and up to date
+     * @return result or null if there is no valid one
+     */
+    Result get(String documentDigest, String trustVersion, Predicate<Set<String>> isTrustLoaded) {
+        if (trustVersion == null) {
+            return null;
+        }
+
+        File file = this.getFile(documentDigest);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties entry = this.read(documentDigest, file);
+        if (entry == null) {
+            file.delete();
+            return null;
+        }
+
+        long validUntil;
+        try {
+            validUntil = Long.parseLong(entry.getProperty("validUntil", "0"));
+        } catch (NumberFormatException e) {
+            validUntil = 0;
+        }
+
+        if (validUntil < System.currentTimeMillis() || !trustVersion.equals(entry.getProperty("trustVersion"))) {
+            file.delete();
+            return null;
+        }
+
+        // Result is kept for the next time the trusted lists are loaded
+        Set<String> countries = new HashSet<>(Arrays.asList(entry.getProperty("countries", "").split(",")));
+        if (!isTrustLoaded.test(countries)) {
+            return null;
+        }
+
+        String status = entry.getProperty("status");
+        String simpleReport = entry.getProperty("simpleReport");
+        if (simpleReport == null) {
+            return new Result(status);
+        }
+
+        try {
+            SimpleReport report = new SimpleReport(SimpleReportFacade.newFacade().unmarshall(simpleReport));
+            return new Result(status, report, Collections.emptyList(), validUntil);
+        } catch (Exception e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result if it can be reused, failure to do so is not fatal
+     *
+     * @param trustVersion version of the trusted lists used for the result
+     * @param countries    countries of the trusted lists used for the result
+     */
+    void put(String documentDigest, String trustVersion, Set<String> countries, Result result) {
+        if (trustVersion == null || !result.notes.isEmpty() || Objects.equals(result.status, "UNKNOWN")) {
+            return;
+        }
+
+        Properties entry = new Properties();
+        entry.setProperty("status", result.status);
+        entry.setProperty("trustVersion", trustVersion);
+        entry.setProperty("countries", String.join(",", new TreeSet<>(countries)));
+        entry.setProperty("validUntil",
+                String.valueOf(Math.min(result.validUntil, System.currentTimeMillis() + this.maxAge)));
+
+        File file = this.getFile(documentDigest);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            if (result.report != null) {
+                entry.setProperty("simpleReport", SimpleReportFacade.newFacade().marshall(result.report.getJaxbModel()));
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            entry.store(body, null);
+            Mac mac = PrivateStorage.getMac(this.keyFile, true);
+            mac.update(documentDigest.getBytes(StandardCharsets.UTF_8));
+
+            try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+                output.write(mac.doFinal(body.toByteArray()));
+                body.writeTo(output);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * @return entry or null if it can't be read or its MAC doesn't match
+     */
+    private Properties read(String documentDigest, File file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Mac mac = PrivateStorage.getMac(this.keyFile, false);
+            if (mac == null || bytes.length < PrivateStorage.MAC_LENGTH) {
+                return null;
+            }
+
+            mac.update(documentDigest.getBytes(StandardCharsets.UTF_8));
+            mac.update(bytes, PrivateStorage.MAC_LENGTH, bytes.length - PrivateStorage.MAC_LENGTH);
+            if (!MessageDigest.isEqual(Arrays.copyOf(bytes, PrivateStorage.MAC_LENGTH), mac.doFinal())) {
+                return null;
+            }
+
+            Properties entry = new Properties();
+            entry.load(new ByteArrayInputStream(bytes, PrivateStorage.MAC_LENGTH,
+                    bytes.length - PrivateStorage.MAC_LENGTH));
+            return entry;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private File getFile(String documentDigest) {
+        return new File(this.directory, Utils.toHex(Utils.fromBase64(documentDigest)) + ".properties");
+    }
+}
@@ -0,0 +1,421 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import eu.europa.esig.dss.AbstractSignatureParameters;
+import eu.europa.esig.dss.asic.cades.ASiCWithCAdESSignatureParameters;
+import eu.europa.esig.dss.asic.cades.signature.ASiCWithCAdESService;
+import eu.europa.esig.dss.enumerations.ASiCContainerType;
+import eu.europa.esig.dss.cades.CAdESSignatureParameters;
+import eu.europa.esig.dss.cades.signature.CAdESService;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureForm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.FileDocument;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.pades.PAdESSignatureParameters;
+import eu.europa.esig.dss.pades.signature.PAdESService;
+import eu.europa.esig.dss.signature.AbstractSignatureService;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import eu.europa.esig.dss.token.AbstractKeyStoreTokenConnection;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.utils.Utils;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+
+/**
+ * Signs documents using one key of an already opened token
+ *
+ * Certificate verifier, services and TSP source are created once and reused
+ * for all documents signed by this instance.
+ *
+ * With the detached threshold set, files larger than it (other than PDFs) are
+ * not loaded to the memory, they get a detached XAdES signature over their
+ * digest instead. This is a deliberate change of the format - DSS builds the
+ * ASiC-E container and the signed PDF revision in the memory, so only a
+ * detached signature keeps the memory bounded. PDFs are always signed as PAdES
+ * and loaded whole. Without the threshold every file keeps its usual format.
+ */
+public class Signer {
+    private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+
+    private AbstractKeyStoreTokenConnection token;
+    private DSSPrivateKeyEntry privateKey;
+    private TSPSource tspSource;
+    private Metrics metrics = new Metrics(false);
+    private PasswordCallback passwordCallback;
+
+    /**
+     * Size in bytes, -1 if detached signing of large files is off
+     */
+    private long detachedThreshold = -1;
+
+    // Create common certificate verifier
+    // TODO: Add trust for -LT/-LTA in the future
+    private CommonCertificateVerifier commonCertificateVerifier = new CommonCertificateVerifier();
+
+    private PAdESService padesService;
+    private XAdESService xadesService;
+    private ASiCWithCAdESService asicService;
+    private CAdESService cadesService;
+
+    public Signer(AbstractKeyStoreTokenConnection token, DSSPrivateKeyEntry privateKey, String tspUrl) {
+        this.token = token;
+        this.privateKey = privateKey;
+
+        if (tspUrl != null) {
+            // Create the TSP source, the URL can be a list of servers
+            this.tspSource = TspSourcePool.forUrls(tspUrl);
+        }
+    }
+
+    /**
+     * Records the signing phases, must be set before the first document is
+     * signed
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        if (this.tspSource != null) {
+            this.tspSource = metrics.measure(this.tspSource);
+        }
+    }
+
+    /**
+     * Password of the token session, forgotten when the token fails to sign so
+     * the reloaded keystore asks for it again
+     */
+    public void setPasswordCallback(PasswordCallback passwordCallback) {
+        this.passwordCallback = passwordCallback;
+    }
+
+    /**
+     * Opts in to the detached signatures of large files
+     *
+     * @param megabytes size of the files signed detached or -1 to sign all the
+     *                  files in their usual format
+     */
+    public void setDetachedThreshold(long megabytes) {
+        this.detachedThreshold = megabytes < 0 ? -1 : megabytes * 1024 * 1024;
+    }
+
+    public DSSDocument sign(File file) throws IOException {
+        return this.complete(this.signValue(this.prepare(file)));
+    }
+
+    public DSSDocument sign(DSSDocument document) {
+        return this.complete(this.signValue(this.prepare(document)));
+    }
+
+    /**
+     * First signing step, uses only the CPU and the disk
+     *
+     * The steps {@link #prepare(File)}, {@link #signValue(Pending)} and
+     * {@link #complete(Pending)} of different documents can run on different
+     * threads at the same time, see {@link SigningPipeline}. Each step of the
+     * same kind has to run on a single thread.
+     */
+    public Pending prepare(File file) throws IOException {
+        if (this.isStreamed(file)) {
+            DigestDocument document;
+            try (Metrics.Phase phase = this.metrics.start("digest")) {
+                document = Signer.digest(file, DigestAlgorithm.SHA256);
+                phase.addBytes(file.length());
+            }
+
+            return this.prepareDetached(document, SignatureForm.XAdES);
+        }
+
+        return this.prepare(new FileDocument(file));
+    }
+
+    public Pending prepare(DSSDocument document) {
+        // TODO: Improve type safety
+        AbstractSignatureService service = this.getService(document.getName());
+        AbstractSignatureParameters parameters = this.getParameters(document.getName());
+
+        // Get the SignedInfo segment that need to be signed.
+        ToBeSigned dataToSign;
+        try (Metrics.Phase phase = this.metrics.start("getDataToSign")) {
+            dataToSign = service.getDataToSign(document, parameters);
+        }
+
+        return new Pending(document, service, parameters, dataToSign);
+    }
+
+    /**
+     * Second signing step, uses only the token
+     */
+    public Pending signValue(Pending pending) {
+        // This function obtains the signature value for signed information using the
+        // private key and specified algorithm
+        try (Metrics.Phase phase = this.metrics.start("tokenSign")) {
+            pending.signatureValue = this.tokenSign(pending.dataToSign, pending.parameters.getDigestAlgorithm());
+        }
+
+        return pending;
+    }
+
+    /**
+     * Last signing step, includes the TSP request
+     */
+    public DSSDocument complete(Pending pending) {
+        // We invoke the service to sign the document with the signature value
+        // obtained in the previous step.
+        try (Metrics.Phase phase = this.metrics.start("signDocument")) {
+            return pending.service.signDocument(pending.document, pending.parameters, pending.signatureValue);
+        }
+    }
+
+    /**
+     * Signs all the files in one ASiC-E container with a single signature (and a
+     * single timestamp)
+     */
+    public DSSDocument signContainer(List<File> files) {
+        List<DSSDocument> documents = files.stream().map(FileDocument::new).collect(Collectors.toList());
+        ASiCWithCAdESService service = (ASiCWithCAdESService) this.getService(".sce");
+        AbstractSignatureParameters parameters = this.getParameters(".sce");
+
+        // Documents keep their digests, so the manifest is built from the ones computed in parallel here
+        try (Metrics.Phase phase = this.metrics.start("digest")) {
+            documents.parallelStream().forEach((document) -> document.getDigest(parameters.getDigestAlgorithm()));
+            phase.addBytes(files.stream().mapToLong(File::length).sum());
+        }
+
+        ToBeSigned dataToSign;
+        try (Metrics.Phase phase = this.metrics.start("getDataToSign")) {
+            dataToSign = service.getDataToSign(documents, (ASiCWithCAdESSignatureParameters) parameters);
+        }
+
+        SignatureValue signatureValue;
+        try (Metrics.Phase phase = this.metrics.start("tokenSign")) {
+            signatureValue = this.tokenSign(dataToSign, parameters.getDigestAlgorithm());
+        }
+
+        try (Metrics.Phase phase = this.metrics.start("signDocument")) {
+            return service.signDocument(documents, (ASiCWithCAdESSignatureParameters) parameters, signatureValue);
+        }
+    }
+
+    /**
+     * Creates detached XAdES or CAdES signature of the document known only by its
+     * digest, XAdES references the document by its name
+     */
+    public DSSDocument signDetached(DigestDocument document, SignatureForm signatureForm) {
+        return this.complete(this.signValue(this.prepareDetached(document, signatureForm)));
+    }
+
+    private SignatureValue tokenSign(ToBeSigned dataToSign, DigestAlgorithm digestAlgorithm) {
+        try {
+            return token.sign(dataToSign, digestAlgorithm, privateKey);
+        } catch (RuntimeException e) {
+            if (this.passwordCallback != null) {
+                this.passwordCallback.invalidate();
+            }
+            throw e;
+        }
+    }
+
+    private Pending prepareDetached(DigestDocument document, SignatureForm signatureForm) {
+        AbstractSignatureParameters parameters;
+        AbstractSignatureService service;
+        if (signatureForm == SignatureForm.CAdES) {
+            parameters = this.getCAdESParameters();
+            service = this.getCAdESService();
+        } else {
+            parameters = this.getParameters(".xml");
+            service = this.getService(".xml");
+        }
+        parameters.setSignaturePackaging(SignaturePackaging.DETACHED);
+        parameters.setDigestAlgorithm(document.getDigestAlgorithm());
+
+        ToBeSigned dataToSign;
+        try (Metrics.Phase phase = this.metrics.start("getDataToSign")) {
+            dataToSign = service.getDataToSign(document, parameters);
+        }
+
+        return new Pending(document, service, parameters, dataToSign);
+    }
+
+    /**
+     * Computes digest of the file in a single pass with a fixed size buffer
+     */
+    public static DigestDocument digest(File file, DigestAlgorithm digestAlgorithm) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(digestAlgorithm.getJavaName());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Direct buffer so the content is not copied through the heap
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                messageDigest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return new DigestDocument(digestAlgorithm, Utils.toBase64(messageDigest.digest()), file.getName());
+    }
+
+    /**
+     * PDFs are always signed in place, DSS loads them to the memory anyway
+     */
+    public boolean isStreamed(File file) {
+        return this.detachedThreshold >= 0 && !file.getName().endsWith(".pdf")
+                && file.length() > this.detachedThreshold;
+    }
+
+    /**
+     * Makes sure file extension of the signed file path is correct
+     */
+    public String getSignedFilePath(String path, File file) {
+        String fileName = file.getName();
+        if (this.isStreamed(file)) {
+            if (!path.endsWith(".xml") || path.equals(file.getAbsolutePath())) {
+                path += ".xml";
+            }
+        } else if (Signer.isContainer(fileName)) {
+            path = Signer.getContainerFilePath(path);
+        } else if (fileName.endsWith(".pdf") && !path.endsWith(".pdf")) {
+            path += ".pdf";
+        } else if (fileName.endsWith(".xml") && !path.endsWith(".xml")) {
+            path += ".xml";
+        }
+
+        return path;
+    }
+
+    /**
+     * Makes sure the path of the ASiC-E container has the container extension
+     */
+    public static String getContainerFilePath(String path) {
+        return path.endsWith(".sce") || path.endsWith(".asice") ? path : path + ".sce";
+    }
+
+    /**
+     * Path used when signing multiple files at once so the originals are kept
+     */
+    public String getDefaultSignedFilePath(File file) {
+        String path = file.getAbsolutePath();
+        if (this.isStreamed(file) || Signer.isContainer(file.getName())) {
+            return this.getSignedFilePath(path, file);
+        }
+
+        int extensionStart = path.lastIndexOf('.');
+        return path.substring(0, extensionStart) + "-signed" + path.substring(extensionStart);
+    }
+
+    private static boolean isContainer(String fileName) {
+        return !(fileName.endsWith(".pdf") || fileName.endsWith(".xml"));
+    }
+
+    private AbstractSignatureService getService(String fileName) {
+        AbstractSignatureService service = null;
+        if (fileName.endsWith(".pdf")) {
+            if (this.padesService == null) {
+                this.padesService = new PAdESService(commonCertificateVerifier);
+                this.padesService.setTspSource(tspSource);
+            }
+            service = this.padesService;
+        } else if (fileName.endsWith(".xml")) {
+            if (this.xadesService == null) {
+                this.xadesService = new XAdESService(commonCertificateVerifier);
+                this.xadesService.setTspSource(tspSource);
+            }
+            service = this.xadesService;
+        } else {
+            if (this.asicService == null) {
+                this.asicService = new ASiCWithCAdESService(commonCertificateVerifier);
+                this.asicService.setTspSource(tspSource);
+            }
+            service = this.asicService;
+        }
+
+        return service;
+    }
+
+    private CAdESService getCAdESService() {
+        if (this.cadesService == null) {
+            this.cadesService = new CAdESService(commonCertificateVerifier);
+            this.cadesService.setTspSource(tspSource);
+        }
+
+        return this.cadesService;
+    }
+
+    private CAdESSignatureParameters getCAdESParameters() {
+        CAdESSignatureParameters parameters = new CAdESSignatureParameters();
+        // We choose the level of the signature (-B, -T, -LT, -LTA).
+        parameters.setSignatureLevel(
+                tspSource != null ? SignatureLevel.CAdES_BASELINE_T : SignatureLevel.CAdES_BASELINE_B);
+        parameters.setSigningCertificate(privateKey.getCertificate());
+        parameters.setCertificateChain(privateKey.getCertificateChain());
+
+        return parameters;
+    }
+
+    private AbstractSignatureParameters getParameters(String fileName) {
+        boolean useTsp = tspSource != null;
+
+        AbstractSignatureParameters parameters = null;
+        if (fileName.endsWith(".pdf")) {
+            parameters = new PAdESSignatureParameters();
+            // We choose the level of the signature (-B, -T, -LT, -LTA).
+            parameters.setSignatureLevel(useTsp ? SignatureLevel.PAdES_BASELINE_T : SignatureLevel.PAdES_BASELINE_B);
+        } else if (fileName.endsWith(".xml")) {
+            parameters = new XAdESSignatureParameters();
+            // We choose the level of the signature (-B, -T, -LT, -LTA).
+            parameters.setSignatureLevel(useTsp ? SignatureLevel.XAdES_BASELINE_T : SignatureLevel.XAdES_BASELINE_B);
+            parameters.setSignaturePackaging(SignaturePackaging.ENVELOPED);
+        } else {
+            ASiCWithCAdESSignatureParameters asicParameters = new ASiCWithCAdESSignatureParameters();
+            // We choose the level of the signature (-B, -T, -LT, -LTA).
+            asicParameters
+                    .setSignatureLevel(useTsp ? SignatureLevel.CAdES_BASELINE_T : SignatureLevel.CAdES_BASELINE_B);
+            asicParameters.aSiC().setContainerType(ASiCContainerType.ASiC_E);
+            parameters = asicParameters;
+        }
+
+        parameters.setDigestAlgorithm(DigestAlgorithm.SHA256);
+        parameters.setSigningCertificate(privateKey.getCertificate());
+        parameters.setCertificateChain(privateKey.getCertificateChain());
+
+        return parameters;
+    }
+
+    /**
+     * Document between the signing steps, parameters (including the signing
+     * time) are fixed when it is prepared
+     */
+    public static class Pending {
+        private final DSSDocument document;
+        private final AbstractSignatureService service;
+        private final AbstractSignatureParameters parameters;
+        private final ToBeSigned dataToSign;
+        private SignatureValue signatureValue;
+
+        private Pending(DSSDocument document, AbstractSignatureService service,
+                AbstractSignatureParameters parameters, ToBeSigned dataToSign) {
+            this.document = document;
+            this.service = service;
+            this.parameters = parameters;
+            this.dataToSign = dataToSign;
+        }
+    }
+}
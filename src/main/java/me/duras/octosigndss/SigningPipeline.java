@@ -0,0 +1,138 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import eu.europa.esig.dss.model.DSSDocument;
+
+/**
+ * Signs a sequence of files with the signing steps of different files
+ * overlapping
+ *
+ * Next file is prepared (hashed) on the calling thread while the current one is
+ * on the token and the previous one is being timestamped and saved. Stages are
+ * connected by bounded queues, so a slow stage blocks the ones before it.
+ * Every stage has a single thread, so the files are completed in the order they
+ * were supplied.
+ */
+public class SigningPipeline {
+    private static final Item END = new Item(null);
+
+    private final Signer signer;
+    private final int capacity;
+
+    /**
+     * @param capacity how many files can wait between two stages
+     */
+    public SigningPipeline(Signer signer, int capacity) {
+        this.signer = signer;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @param files    supplies the next file path, null if there are no more
+     * @param onSigned called with each signed document, for example to save it
+     * @param onFailed called with the error of each file that failed in any
+     *                 stage (including onSigned)
+     */
+    public void run(Supplier<String> files, SignedConsumer onSigned, BiConsumer<String, Exception> onFailed)
+            throws InterruptedException, ExecutionException {
+        BlockingQueue<Item> prepared = new ArrayBlockingQueue<>(this.capacity);
+        BlockingQueue<Item> signed = new ArrayBlockingQueue<>(this.capacity);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> completeStage = executor.submit(() -> {
+                Item item;
+                while ((item = signed.take()) != END) {
+                    if (item.error == null) {
+                        try {
+                            onSigned.accept(item.filePath, this.signer.complete(item.pending));
+                        } catch (Exception e) {
+                            item.error = e;
+                        }
+                    }
+
+                    if (item.error != null) {
+                        onFailed.accept(item.filePath, item.error);
+                    }
+                }
+
+                return null;
+            });
+
+            Future<?> tokenStage = executor.submit(() -> {
+                Item item;
+                while ((item = prepared.take()) != END) {
+                    if (item.error == null) {
+                        try {
+                            this.signer.signValue(item.pending);
+                        } catch (Exception e) {
+                            item.error = e;
+                        }
+                    }
+
+                    SigningPipeline.put(signed, item, completeStage);
+                }
+
+                SigningPipeline.put(signed, END, completeStage);
+                return null;
+            });
+
+            String filePath;
+            while ((filePath = files.get()) != null) {
+                Item item = new Item(filePath);
+                try {
+                    item.pending = this.signer.prepare(new File(filePath));
+                } catch (Exception e) {
+                    item.error = e;
+                }
+
+                SigningPipeline.put(prepared, item, tokenStage);
+            }
+
+            SigningPipeline.put(prepared, END, tokenStage);
+            tokenStage.get();
+            completeStage.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for a space in the queue, but fails instead of waiting forever if
+     * the consuming stage died
+     */
+    private static void put(BlockingQueue<Item> queue, Item item, Future<?> consumer)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (consumer.isDone()) {
+                consumer.get();
+                throw new IllegalStateException("Signing stage ended prematurely.");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface SignedConsumer {
+        void accept(String filePath, DSSDocument signedDocument) throws Exception;
+    }
+
+    private static class Item {
+        private final String filePath;
+        private Signer.Pending pending;
+        private Exception error;
+
+        Item(String filePath) {
+            this.filePath = filePath;
+        }
+    }
+}
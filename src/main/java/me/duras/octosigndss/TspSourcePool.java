@@ -0,0 +1,262 @@
+package me.duras.octosigndss;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.service.http.commons.TimestampDataLoader;
+import eu.europa.esig.dss.service.tsp.OnlineTSPSource;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+
+/**
+ * Timestamps from the currently fastest healthy server of a list
+ *
+ * Servers are tried in the order of their average latency, the ones that
+ * failed recently go last. If the first server doesn't respond within the hedge
+ * delay (octosign.tspHedgeDelay ms, default 2000), the next one is asked as
+ * well and the first response wins. Failed request is followed by the next
+ * server right away. All online servers share one pool of keep-alive
+ * connections.
+ */
+public class TspSourcePool implements TSPSource {
+    private static final long serialVersionUID = 4460262125960307451L;
+
+    private static final long FAILURE_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+    private static final Map<String, TspSourcePool> POOLS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "octosign-tsp");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Server> servers;
+    private final long hedgeDelay;
+
+    /**
+     * @param sources    servers to use, in the order of preference until their
+     *                   latency is known
+     * @param hedgeDelay how long (in ms) to wait for a server before asking the
+     *                   next one
+     */
+    public TspSourcePool(List<? extends TSPSource> sources, long hedgeDelay) {
+        this.servers = sources.stream().map(Server::new).collect(Collectors.toList());
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * Pool for the URLs separated by spaces, commas or semicolons
+     *
+     * Pools are kept for the whole process, so the latencies measured by one
+     * operation are used by the next ones.
+     */
+    public static TspSourcePool forUrls(String tspUrls) {
+        return POOLS.computeIfAbsent(tspUrls.trim(), (urls) -> {
+            PooledTimestampDataLoader dataLoader = new PooledTimestampDataLoader();
+            List<OnlineTSPSource> sources = Arrays.stream(urls.split("[\\s,;]+")).map(url -> {
+                OnlineTSPSource source = new OnlineTSPSource(url);
+                source.setDataLoader(dataLoader);
+                return source;
+            }).collect(Collectors.toList());
+
+            return new TspSourcePool(sources, Config.getLong("tspHedgeDelay", 2000));
+        });
+    }
+
+    @Override
+    public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) throws DSSException {
+        List<Server> candidates = this.getCandidates();
+        CompletionService<TimestampBinary> completion = new ExecutorCompletionService<>(EXECUTOR);
+        List<Future<TimestampBinary>> requests = new ArrayList<>();
+
+        int next = 0;
+        Exception lastError = null;
+        try {
+            requests.add(completion.submit(candidates.get(next++).request(digestAlgorithm, digest)));
+            int running = 1;
+            while (running > 0) {
+                Future<TimestampBinary> done = next < candidates.size()
+                        ? completion.poll(this.hedgeDelay, TimeUnit.MILLISECONDS)
+                        : completion.take();
+
+                if (done == null) {
+                    // Hedged request, the slow one is still running and can win
+                    requests.add(completion.submit(candidates.get(next++).request(digestAlgorithm, digest)));
+                    running++;
+                    continue;
+                }
+
+                running--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    lastError = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (next < candidates.size()) {
+                        requests.add(completion.submit(candidates.get(next++).request(digestAlgorithm, digest)));
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DSSException("Timestamp request was interrupted.", e);
+        } finally {
+            // Requests already sent are left to finish so their latency is recorded
+            requests.forEach(request -> request.cancel(false));
+        }
+
+        throw new DSSException("None of the timestamp servers responded: " + lastError.getMessage(), lastError);
+    }
+
+    /**
+     * Healthy servers from the fastest, then the ones that failed recently from
+     * the one that failed first
+     */
+    private List<Server> getCandidates() {
+        long now = System.nanoTime();
+        List<Server.Snapshot> snapshots = this.servers.stream().map(server -> server.snapshot(now))
+                .collect(Collectors.toList());
+        snapshots.sort(Comparator.<Server.Snapshot, Boolean>comparing(snapshot -> !snapshot.healthy)
+                .thenComparingDouble(snapshot -> snapshot.healthy ? snapshot.latency : 0)
+                .thenComparingLong(snapshot -> snapshot.healthy ? 0 : snapshot.failedAt - now));
+
+        return snapshots.stream().map(snapshot -> snapshot.server).collect(Collectors.toList());
+    }
+
+    private static class Server {
+        private static final double SMOOTHING = 0.3;
+
+        private final TSPSource source;
+        private double latency = 0;
+        private boolean failed = false;
+        private long failedAt;
+
+        Server(TSPSource source) {
+            this.source = source;
+        }
+
+        Callable<TimestampBinary> request(DigestAlgorithm digestAlgorithm, byte[] digest) {
+            return () -> {
+                long start = System.nanoTime();
+                try {
+                    TimestampBinary timestamp = this.source.getTimeStampResponse(digestAlgorithm, digest);
+                    if (timestamp == null) {
+                        throw new DSSException("Timestamp server returned no response.");
+                    }
+
+                    this.succeeded(System.nanoTime() - start);
+                    return timestamp;
+                } catch (RuntimeException e) {
+                    this.failed();
+                    throw e;
+                }
+            };
+        }
+
+        private synchronized void succeeded(long nanoseconds) {
+            this.latency = this.latency == 0 ? nanoseconds : SMOOTHING * nanoseconds + (1 - SMOOTHING) * this.latency;
+            this.failed = false;
+        }
+
+        private synchronized void failed() {
+            this.failed = true;
+            this.failedAt = System.nanoTime();
+        }
+
+        private synchronized Snapshot snapshot(long now) {
+            boolean healthy = !this.failed || now - this.failedAt >= FAILURE_BACKOFF;
+            return new Snapshot(this, this.latency, this.failedAt, healthy);
+        }
+
+        /**
+         * Values don't change while the servers are being sorted
+         */
+        private static class Snapshot {
+            private final Server server;
+            private final double latency;
+            private final long failedAt;
+            private final boolean healthy;
+
+            Snapshot(Server server, double latency, long failedAt, boolean healthy) {
+                this.server = server;
+                this.latency = latency;
+                this.failedAt = failedAt;
+                this.healthy = healthy;
+            }
+        }
+    }
+
+    /**
+     * Sends the timestamp requests over shared keep-alive connections
+     */
+    private static class PooledTimestampDataLoader extends TimestampDataLoader {
+        private static final long serialVersionUID = -2876426233409812215L;
+
+        private static final int TIMEOUT = 30 * 1000;
+
+        private static CloseableHttpClient httpClient;
+
+        @Override
+        public byte[] post(String url, byte[] content) throws DSSException {
+            HttpPost request = new HttpPost(url);
+            request.setHeader("Content-Type", "application/timestamp-query");
+            request.setHeader("Accept", "application/timestamp-reply");
+            request.setEntity(new ByteArrayEntity(content));
+
+            try (CloseableHttpResponse response = PooledTimestampDataLoader.getHttpClient().execute(request)) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status != HttpStatus.SC_OK) {
+                    EntityUtils.consume(response.getEntity());
+                    throw new DSSException(String.format("Unable to get timestamp from %s, status %d", url, status));
+                }
+
+                return EntityUtils.toByteArray(response.getEntity());
+            } catch (IOException e) {
+                throw new DSSException(String.format("Unable to get timestamp from %s: %s", url, e.getMessage()), e);
+            }
+        }
+
+        private static synchronized CloseableHttpClient getHttpClient() {
+            if (httpClient == null) {
+                PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+                connectionManager.setDefaultMaxPerRoute(4);
+                connectionManager.setMaxTotal(20);
+
+                RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(TIMEOUT)
+                        .setSocketTimeout(TIMEOUT).setConnectionRequestTimeout(TIMEOUT).build();
+
+                httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                        .setDefaultRequestConfig(requestConfig).build();
+            }
+
+            return httpClient;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package me.duras.octosigndss.trust;
+
+import java.util.List;
+
+import eu.europa.esig.dss.crl.CRLBinary;
+import eu.europa.esig.dss.crl.CRLUtils;
+import eu.europa.esig.dss.crl.CRLValidity;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSASN1Utils;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLSource;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLToken;
+
+/**
+ * CRL source that asks the wrapped source only if there is no valid CRL in
+ * the cache
+ *
+ * Cached CRL is read as a whole since DSS keeps its encoded form in the token
+ * anyway. It is parsed by the streaming parser (dss-crl-parser-stream), so the
+ * revoked certificates are not all decoded into objects.
+ */
+public class CachedCRLSource implements CRLSource {
+    private static final long serialVersionUID = 3719480624207593017L;
+
+    private CRLSource source;
+    private transient RevocationCache cache;
+
+    public CachedCRLSource(CRLSource source, RevocationCache cache) {
+        this.source = source;
+        this.cache = cache;
+    }
+
+    @Override
+    public CRLToken getRevocationToken(CertificateToken certificateToken, CertificateToken issuerCertificateToken) {
+        List<String> crlUrls = DSSASN1Utils.getCrlUrls(certificateToken);
+        if (crlUrls.isEmpty()) {
+            return this.source.getRevocationToken(certificateToken, issuerCertificateToken);
+        }
+
+        // Distribution point and issuer, since the same CRL can be signed by different keys
+        String key = crlUrls.get(0) + "|" + issuerCertificateToken.getDSSIdAsString();
+
+        // Concurrent requests for the same CRL wait for the first one instead of fetching it again
+        return this.cache.fetchOnce("crl", key, () -> {
+            CRLToken crlToken = this.source.getRevocationToken(certificateToken, issuerCertificateToken);
+            if (crlToken != null) {
+                this.cache.put("crl", key, crlToken.getEncoded(), crlToken.getNextUpdate());
+            }
+
+            return crlToken;
+        }, () -> this.getCached(key, crlUrls.get(0), certificateToken, issuerCertificateToken));
+    }
+
+    /**
+     * @return token of the cached CRL or null if there is no usable one
+     */
+    private CRLToken getCached(String key, String crlUrl, CertificateToken certificateToken,
+            CertificateToken issuerCertificateToken) {
+        byte[] encoded = this.cache.get("crl", key);
+        if (encoded == null) {
+            return null;
+        }
+
+        try {
+            CRLValidity crlValidity = CRLUtils.buildCRLValidity(new CRLBinary(encoded), issuerCertificateToken);
+            CRLToken crlToken = new CRLToken(certificateToken, crlValidity);
+            crlToken.setSourceURL(crlUrl);
+            return crlToken;
+        } catch (Exception e) {
+            // Fall back to the wrapped source
+            return null;
+        }
+    }
+}
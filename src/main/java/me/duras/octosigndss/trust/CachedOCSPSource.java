@@ -0,0 +1,65 @@
+package me.duras.octosigndss.trust;
+
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSRevocationUtils;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPSource;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPToken;
+
+/**
+ * OCSP source that asks the wrapped source only if there is no valid response
+ * in the cache
+ */
+public class CachedOCSPSource implements OCSPSource {
+    private static final long serialVersionUID = -4617590683523042841L;
+
+    private OCSPSource source;
+    private transient RevocationCache cache;
+
+    public CachedOCSPSource(OCSPSource source, RevocationCache cache) {
+        this.source = source;
+        this.cache = cache;
+    }
+
+    @Override
+    public OCSPToken getRevocationToken(CertificateToken certificateToken, CertificateToken issuerCertificateToken) {
+        String key = issuerCertificateToken.getDSSIdAsString() + "|" + certificateToken.getSerialNumber().toString(16);
+
+        // Concurrent requests for the same response wait for the first one instead of fetching it again
+        return this.cache.fetchOnce("ocsp", key, () -> {
+            OCSPToken ocspToken = this.source.getRevocationToken(certificateToken, issuerCertificateToken);
+            if (ocspToken != null) {
+                this.cache.put("ocsp", key, ocspToken.getEncoded(), ocspToken.getNextUpdate());
+            }
+
+            return ocspToken;
+        }, () -> this.getCached(key, certificateToken, issuerCertificateToken));
+    }
+
+    /**
+     * @return token of the cached response or null if there is no usable one
+     */
+    private OCSPToken getCached(String key, CertificateToken certificateToken,
+            CertificateToken issuerCertificateToken) {
+        byte[] encoded = this.cache.get("ocsp", key);
+        if (encoded == null) {
+            return null;
+        }
+
+        try {
+            BasicOCSPResp basicResponse = new BasicOCSPResp(BasicOCSPResponse.getInstance(encoded));
+            SingleResp singleResponse = DSSRevocationUtils.getLatestSingleResponse(basicResponse, certificateToken,
+                    issuerCertificateToken);
+            if (singleResponse != null) {
+                return new OCSPToken(basicResponse, singleResponse, certificateToken, issuerCertificateToken);
+            }
+        } catch (Exception e) {
+            // Fall back to the wrapped source
+        }
+
+        return null;
+    }
+}
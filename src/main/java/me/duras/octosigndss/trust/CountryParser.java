@@ -0,0 +1,99 @@
+package me.duras.octosigndss.trust;
+
+import java.util.Locale;
+
+/**
+ * Finds the country (C attribute) in the canonicalized (RFC 2253) subject of
+ * the certificate
+ *
+ * Single pass over the subject without regular expressions. Countries are
+ * always lower-case, like the canonicalized subject, and two-letter country
+ * codes are returned from a shared table, so there is no allocation for them.
+ */
+public class CountryParser {
+    private static final String[] TWO_LETTER_COUNTRIES = new String[26 * 26];
+
+    /**
+     * @param subject canonicalized subject, for example "cn=john,o=company,c=sk"
+     * @return the lower-case value of the last C attribute or null if there is
+     *         none
+     */
+    public static String parse(String subject) {
+        int length = subject.length();
+        int valueStart = -1;
+        int valueEnd = -1;
+
+        int attributeStart = 0;
+        while (attributeStart < length) {
+            if (attributeStart + 1 < length && (subject.charAt(attributeStart) == 'c'
+                    || subject.charAt(attributeStart) == 'C') && subject.charAt(attributeStart + 1) == '=') {
+                int end = attributeStart + 2;
+                while (end < length && CountryParser.isWordCharacter(subject.charAt(end))) {
+                    end++;
+                }
+
+                if (end > attributeStart + 2) {
+                    valueStart = attributeStart + 2;
+                    valueEnd = end;
+                }
+            }
+
+            attributeStart = CountryParser.nextAttribute(subject, attributeStart);
+        }
+
+        if (valueStart < 0) {
+            return null;
+        }
+
+        return CountryParser.toCountry(subject, valueStart, valueEnd);
+    }
+
+    /**
+     * @return start of the next attribute, skipping escaped separators in the
+     *         values
+     */
+    private static int nextAttribute(String subject, int position) {
+        int length = subject.length();
+        while (position < length) {
+            char character = subject.charAt(position);
+            if (character == '\\') {
+                position += 2;
+                continue;
+            }
+
+            position++;
+            if (character == ',' || character == '+') {
+                break;
+            }
+        }
+
+        return position;
+    }
+
+    private static String toCountry(String subject, int start, int end) {
+        if (end - start != 2) {
+            return subject.substring(start, end).toLowerCase(Locale.ROOT);
+        }
+
+        char first = Character.toLowerCase(subject.charAt(start));
+        char second = Character.toLowerCase(subject.charAt(start + 1));
+        if (first < 'a' || first > 'z' || second < 'a' || second > 'z') {
+            return subject.substring(start, end).toLowerCase(Locale.ROOT);
+        }
+
+        int index = (first - 'a') * 26 + (second - 'a');
+        String country = TWO_LETTER_COUNTRIES[index];
+        if (country == null) {
+            // Benign race, the same value is computed by every thread
+            country = new String(new char[] { first, second });
+            TWO_LETTER_COUNTRIES[index] = country;
+        }
+
+        return country;
+    }
+
+    private static boolean isWordCharacter(char character) {
+        return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+                || (character >= '0' && character <= '9') || character == '_';
+    }
+}
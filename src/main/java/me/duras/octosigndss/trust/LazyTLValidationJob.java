@@ -2,16 +2,16 @@ package me.duras.octosigndss.trust;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import eu.europa.esig.dss.model.DSSException;
@@ -45,10 +45,16 @@ import eu.europa.esig.dss.utils.Utils;
  *
  */
 public class LazyTLValidationJob {
-    public final static Pattern canonicalizedCountryPattern = Pattern.compile(".*,?c=(\\w+),?.*",
-            Pattern.CASE_INSENSITIVE);
+    /**
+     * Created on the first refresh if none is set, see {@link #getTaskExecutor()}
+     */
+    private TLTaskExecutor taskExecutor;
 
-    private ExecutorService executorService = Executors.newCachedThreadPool();
+    /**
+     * Critical path (sum of the longest LOTL and the longest TL task) of the last
+     * refresh in ms
+     */
+    private long lastCriticalPath = -1;
 
     /**
      * Contains all caches for the current validation job
@@ -105,10 +111,29 @@ public class LazyTLValidationJob {
      */
     private List<Alert<?>> alerts;
 
-    private Set<String> requiredCountries;
+    /**
+     * Countries whose trusted lists are analysed, grows with every verified
+     * document in the long-lived process
+     */
+    private Set<String> requiredCountries = new HashSet<>();
 
-    LazyTLValidationJob(Set<String> requiredCountries) {
-        this.requiredCountries = requiredCountries;
+    /**
+     * Countries whose trusted lists were already analysed by a refresh
+     */
+    private Set<String> analysedCountries = new HashSet<>();
+
+    LazyTLValidationJob() {
+    }
+
+    /**
+     * Adds the countries whose trusted lists should be analysed on the next
+     * refresh
+     * 
+     * @param requiredCountries lower-case ISO 3166 country codes, see
+     *                          {@link CountryParser}
+     */
+    public synchronized void addRequiredCountries(Set<String> requiredCountries) {
+        this.requiredCountries.addAll(requiredCountries);
     }
 
     public void setTrustedListSources(TLSource... trustedListSources) {
@@ -119,11 +144,24 @@ public class LazyTLValidationJob {
         this.listOfTrustedListSources = listOfTrustedListSources;
     }
 
-    public void setExecutorService(ExecutorService executorService) {
-        if (this.executorService != null && !this.executorService.isShutdown()) {
-            this.executorService.shutdownNow();
-        }
-        this.executorService = executorService;
+    /**
+     * Sets the executor of the LOTL/TL analysis tasks
+     * 
+     * @param taskExecutor {@link TLTaskExecutor}
+     */
+    public synchronized void setTaskExecutor(TLTaskExecutor taskExecutor) {
+        Objects.requireNonNull(taskExecutor, "The TLTaskExecutor cannot be null");
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Returns the critical path of the last refresh - time the refresh would
+     * take with unlimited parallelism
+     * 
+     * @return duration in ms or -1 if there was no refresh
+     */
+    public long getLastCriticalPath() {
+        return lastCriticalPath;
     }
 
     /**
@@ -209,7 +247,7 @@ public class LazyTLValidationJob {
      */
     public synchronized void offlineRefresh() {
         Objects.requireNonNull(offlineLoader, "The offlineLoader must be defined!");
-        refresh(offlineLoader);
+        refresh(offlineLoader, false);
     }
 
     /**
@@ -218,10 +256,23 @@ public class LazyTLValidationJob {
      */
     public synchronized void onlineRefresh() {
         Objects.requireNonNull(onlineLoader, "The onlineLoader must be defined!");
-        refresh(onlineLoader);
+        refresh(onlineLoader, false);
+    }
+
+    /**
+     * Used to execute the refresh in online mode only for the countries added
+     * since the last refresh, trusted lists of the other countries are kept as
+     * they are in the cache
+     * 
+     * @return countries whose trusted lists were analysed
+     */
+    public synchronized Set<String> onlineRefreshAddedCountries() {
+        Objects.requireNonNull(onlineLoader, "The onlineLoader must be defined!");
+        return refresh(onlineLoader, true);
     }
 
-    private void refresh(DSSFileLoader dssFileLoader) {
+    private Set<String> refresh(DSSFileLoader dssFileLoader, boolean onlyAdded) {
+        long criticalPath = 0;
 
         List<TLSource> currentTLSources = new ArrayList<>();
         if (trustedListSources != null) {
@@ -232,7 +283,7 @@ public class LazyTLValidationJob {
         if (Utils.isArrayNotEmpty(listOfTrustedListSources)) {
             final List<LOTLSource> lotlList = Arrays.asList(listOfTrustedListSources);
 
-            executeLOTLSourcesAnalysis(lotlList, dssFileLoader);
+            criticalPath += executeLOTLSourcesAnalysis(lotlList, dssFileLoader);
 
             // Check LOTLs consistency
 
@@ -240,8 +291,16 @@ public class LazyTLValidationJob {
             currentTLSources.addAll(extractTlSources(lotlList));
         }
 
-        // And then, execute all TLs (manual configs + TLs from LOTLs)
-        executeTLSourcesAnalysis(currentTLSources, dssFileLoader);
+        Set<String> countries = new HashSet<>(requiredCountries);
+        if (onlyAdded) {
+            countries.removeAll(analysedCountries);
+        }
+
+        // And then, execute all required TLs (manual configs + TLs from LOTLs)
+        criticalPath += executeTLSourcesAnalysis(getRequiredTLSources(indexByCountry(currentTLSources), countries),
+                dssFileLoader);
+        analysedCountries.addAll(countries);
+        lastCriticalPath = criticalPath;
 
         // alerts()
         if (Utils.isCollectionNotEmpty(alerts)) {
@@ -262,31 +321,29 @@ public class LazyTLValidationJob {
         if (debug) {
             cacheAccessFactory.getDebugCacheAccess().dump();
         }
+
+        return countries;
     }
 
-    private void executeLOTLSourcesAnalysis(List<LOTLSource> lotlSources, DSSFileLoader dssFileLoader) {
+    /**
+     * @return duration of the longest task in ms
+     */
+    private long executeLOTLSourcesAnalysis(List<LOTLSource> lotlSources, DSSFileLoader dssFileLoader) {
         checkNoDuplicateUrls(lotlSources);
 
-        int nbLOTLSources = lotlSources.size();
-
         Map<CacheKey, ParsingCacheDTO> oldParsingValues = extractParsingCache(lotlSources);
 
-        CountDownLatch latch = new CountDownLatch(nbLOTLSources);
+        List<Function<CountDownLatch, Runnable>> tasks = new ArrayList<>();
         for (LOTLSource lotlSource : lotlSources) {
             final CacheAccessByKey cacheAccess = cacheAccessFactory.getCacheAccess(lotlSource.getCacheKey());
             if (lotlSource.isPivotSupport()) {
-                executorService
-                        .submit(new LOTLWithPivotsAnalysis(cacheAccessFactory, lotlSource, dssFileLoader, latch));
+                tasks.add((latch) -> new LOTLWithPivotsAnalysis(cacheAccessFactory, lotlSource, dssFileLoader, latch));
             } else {
-                executorService.submit(new LOTLAnalysis(lotlSource, cacheAccess, dssFileLoader, latch));
+                tasks.add((latch) -> new LOTLAnalysis(lotlSource, cacheAccess, dssFileLoader, latch));
             }
         }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        long longestTask = getTaskExecutor().execute(tasks);
 
         Map<CacheKey, ParsingCacheDTO> newParsingValues = extractParsingCache(lotlSources);
 
@@ -294,6 +351,8 @@ public class LazyTLValidationJob {
         final LOTLChangeApplier lotlChangeApplier = new LOTLChangeApplier(cacheAccessFactory.getTLChangesCacheAccess(),
                 oldParsingValues, newParsingValues);
         lotlChangeApplier.analyzeAndApply();
+
+        return longestTask;
     }
 
     private List<TLSource> extractTlSources(List<LOTLSource> lotlList) {
@@ -307,34 +366,60 @@ public class LazyTLValidationJob {
                 s -> readOnlyCacheAccess.getParsingCacheDTO(s.getCacheKey())));
     }
 
-    private void executeTLSourcesAnalysis(List<TLSource> tlSources, DSSFileLoader dssFileLoader) {
-        List<TLSource> requiredTlSources = tlSources.stream().filter((TLSource source) -> {
+    /**
+     * Index of TL sources by the countries of their signing certificates, built
+     * once the LOTLs are parsed
+     */
+    private Map<String, Set<TLSource>> indexByCountry(List<TLSource> tlSources) {
+        Map<String, Set<TLSource>> index = new HashMap<>();
+        for (TLSource source : tlSources) {
             for (CertificateToken cert : source.getCertificateSource().getCertificates()) {
-                Matcher matcher = canonicalizedCountryPattern.matcher(cert.getCanonicalizedSubject());
-                if (matcher.find() && requiredCountries.contains(matcher.group(1)))
-                    return true;
+                String country = CountryParser.parse(cert.getCanonicalizedSubject());
+                if (country != null) {
+                    index.computeIfAbsent(country, (key) -> new LinkedHashSet<>()).add(source);
+                }
             }
-            return false;
-        }).collect(Collectors.toList());
+        }
 
-        int nbTLSources = requiredTlSources.size();
-        if (nbTLSources == 0) {
-            return;
+        return index;
+    }
+
+    private List<TLSource> getRequiredTLSources(Map<String, Set<TLSource>> tlSourcesByCountry,
+            Set<String> countries) {
+        Set<TLSource> requiredTlSources = new LinkedHashSet<>();
+        for (String country : countries) {
+            requiredTlSources.addAll(tlSourcesByCountry.getOrDefault(country, Collections.emptySet()));
+        }
+
+        return new ArrayList<>(requiredTlSources);
+    }
+
+    /**
+     * @return duration of the longest task in ms
+     */
+    private long executeTLSourcesAnalysis(List<TLSource> requiredTlSources, DSSFileLoader dssFileLoader) {
+        if (requiredTlSources.isEmpty()) {
+            return 0;
         }
 
         checkNoDuplicateUrls(requiredTlSources);
 
-        CountDownLatch latch = new CountDownLatch(nbTLSources);
+        List<Function<CountDownLatch, Runnable>> tasks = new ArrayList<>();
         for (TLSource tlSource : requiredTlSources) {
             final CacheAccessByKey cacheAccess = cacheAccessFactory.getCacheAccess(tlSource.getCacheKey());
-            executorService.submit(new TLAnalysis(tlSource, cacheAccess, dssFileLoader, latch));
+            tasks.add((latch) -> new TLAnalysis(tlSource, cacheAccess, dssFileLoader, latch));
         }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        return getTaskExecutor().execute(tasks);
+    }
+
+    private synchronized TLTaskExecutor getTaskExecutor() {
+        if (taskExecutor == null) {
+            taskExecutor = new TLTaskExecutor(TLTaskExecutor.DEFAULT_PARALLELISM, false,
+                    TLTaskExecutor.DEFAULT_TASK_TIMEOUT);
         }
+
+        return taskExecutor;
     }
 
     private void synchronizeTLCertificateSource() {
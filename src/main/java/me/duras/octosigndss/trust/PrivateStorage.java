@@ -0,0 +1,100 @@
+package me.duras.octosigndss.trust;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Directory of the current user for the cached data other users must not
+ * plant or modify, for example the trust snapshot or verification results
+ *
+ * Files read from it are also authenticated by an HMAC with the random key
+ * of the trust snapshot, see {@link #getMac(File, boolean)}.
+ */
+public class PrivateStorage {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+
+    /**
+     * Length of the MAC in bytes
+     */
+    public static final int MAC_LENGTH = 32;
+
+    /**
+     * @return ~/.octosign accessible only by the current user
+     */
+    public static File getDirectory() {
+        File directory = new File(System.getProperty("user.home"), ".octosign");
+        directory.mkdirs();
+        try {
+            Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system, the user profile is private already
+        }
+
+        return directory;
+    }
+
+    /**
+     * @param name of the directory inside the private one
+     */
+    public static File getDirectory(String name) {
+        File directory = new File(PrivateStorage.getDirectory(), name);
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Key of the trust snapshot (see {@link TrustSnapshot}), shared by all the
+     * authenticated caches
+     */
+    public static File getKeyFile() {
+        return new File(PrivateStorage.getDirectory(), "trust.snapshot.key");
+    }
+
+    /**
+     * @param keyFile file with the key, see {@link #getKeyFile()}
+     * @param create  whether to create the key if there is none yet
+     * @return HMAC keyed by the key or null if there is no key
+     */
+    public static Mac getMac(File keyFile, boolean create) throws IOException, GeneralSecurityException {
+        Path keyPath = keyFile.toPath();
+        if (create && !keyFile.exists()) {
+            byte[] key = new byte[KEY_LENGTH];
+            new SecureRandom().nextBytes(key);
+            try (OutputStream output = Files.newOutputStream(keyPath, StandardOpenOption.CREATE_NEW)) {
+                try {
+                    Files.setPosixFilePermissions(keyPath, PosixFilePermissions.fromString("rw-------"));
+                } catch (UnsupportedOperationException e) {
+                    // Not a POSIX file system, the directory is private anyway
+                }
+                output.write(key);
+            } catch (FileAlreadyExistsException e) {
+                // Created by another process in the meantime
+            }
+        }
+
+        if (!keyFile.isFile()) {
+            return null;
+        }
+
+        byte[] key = Files.readAllBytes(keyPath);
+        if (key.length != KEY_LENGTH) {
+            return null;
+        }
+
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+        return mac;
+    }
+}
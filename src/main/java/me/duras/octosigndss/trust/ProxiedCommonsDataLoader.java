@@ -1,18 +1,185 @@
 package me.duras.octosigndss.trust;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
 import eu.europa.esig.dss.model.DSSException;
 import eu.europa.esig.dss.service.http.commons.CommonsDataLoader;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.utils.Utils;
 
 /**
  * Simple wrapper that sets our own "proxy" for the get requests
+ *
+ * Responses are downloaded only if they changed: ETag and Last-Modified of the
+ * last response are sent back as If-None-Match and If-Modified-Since. Unchanged
+ * response is read from the file of the file loader using this loader, only
+ * the validators are stored here. All requests of the loader share one pool of
+ * keep-alive connections configured by the loader and accept gzip.
  */
 public class ProxiedCommonsDataLoader extends CommonsDataLoader {
     private static final long serialVersionUID = -906616344684206459L;
 
     private static final String PROXY_URL = "https://lotl-proxy.octosign.com/";
 
+    private transient CloseableHttpClient httpClient;
+
+    private String proxyUrl;
+
+    /**
+     * Cache directory of the file loader, holds the last responses
+     */
+    private File cacheDirectory;
+
+    /**
+     * Where the validators of the last responses are kept
+     */
+    private File validatorsDirectory;
+
+    /**
+     * @param cacheDirectory cache directory of the file loader using this loader
+     */
+    public ProxiedCommonsDataLoader(File cacheDirectory) {
+        this(PROXY_URL, cacheDirectory);
+    }
+
+    public ProxiedCommonsDataLoader(String proxyUrl, File cacheDirectory) {
+        this.proxyUrl = proxyUrl;
+        this.cacheDirectory = cacheDirectory;
+        // Subdirectory so it doesn't interfere with the files of the file loader
+        this.validatorsDirectory = new File(cacheDirectory, "http");
+        this.validatorsDirectory.mkdirs();
+    }
+
     @Override
     protected byte[] httpGet(String urlString) throws DSSException {
-        return super.httpGet(PROXY_URL + "fetch?url=" + urlString);
+        File validatorsFile = new File(this.validatorsDirectory, this.getFileName(urlString) + ".properties");
+        // Same file name as the one of FileCacheDataLoader
+        byte[] cachedContent = this.readCachedContent(new File(this.cacheDirectory,
+                DSSUtils.getNormalizedString(urlString)));
+
+        HttpGet request = new HttpGet(this.proxyUrl + "fetch?url=" + urlString);
+        Properties validators = new Properties();
+        // Validators are used only with the response they came with
+        if (cachedContent != null && validatorsFile.isFile()) {
+            validators = this.loadValidators(validatorsFile);
+            if (!this.getDigest(cachedContent).equals(validators.getProperty("digest"))) {
+                validators.clear();
+            }
+        }
+        if (validators.getProperty("ETag") != null) {
+            request.setHeader("If-None-Match", validators.getProperty("ETag"));
+        }
+        if (validators.getProperty("Last-Modified") != null) {
+            request.setHeader("If-Modified-Since", validators.getProperty("Last-Modified"));
+        }
+
+        try (CloseableHttpResponse response = this.getPooledHttpClient().execute(request)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_MODIFIED && !validators.isEmpty()) {
+                EntityUtils.consume(response.getEntity());
+                return cachedContent;
+            }
+
+            if (status != HttpStatus.SC_OK) {
+                EntityUtils.consume(response.getEntity());
+                throw new DSSException(String.format("Unable to fetch %s, status %d", urlString, status));
+            }
+
+            byte[] content = EntityUtils.toByteArray(response.getEntity());
+
+            Properties newValidators = new Properties();
+            for (String headerName : new String[] { "ETag", "Last-Modified" }) {
+                Header header = response.getFirstHeader(headerName);
+                if (header != null) {
+                    newValidators.setProperty(headerName, header.getValue());
+                }
+            }
+            newValidators.setProperty("digest", this.getDigest(content));
+            this.storeValidators(validatorsFile, newValidators);
+
+            return content;
+        } catch (IOException e) {
+            throw new DSSException(String.format("Unable to fetch %s: %s", urlString, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Client with the proxy, TLS and timeout settings of this loader, kept open
+     * for all its requests
+     *
+     * Content compression (Accept-Encoding: gzip, deflate) is enabled by default.
+     */
+    private synchronized CloseableHttpClient getPooledHttpClient() {
+        if (this.httpClient == null) {
+            this.httpClient = this.getHttpClient(this.proxyUrl);
+        }
+
+        return this.httpClient;
+    }
+
+    /**
+     * @return content of the cached file or null if there is none
+     */
+    private byte[] readCachedContent(File cachedFile) {
+        try {
+            return cachedFile.isFile() ? Files.readAllBytes(cachedFile.toPath()) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Properties loadValidators(File validatorsFile) {
+        Properties validators = new Properties();
+        try (InputStream input = Files.newInputStream(validatorsFile.toPath())) {
+            validators.load(input);
+        } catch (IOException e) {
+            // Unconditional download then
+        }
+
+        return validators;
+    }
+
+    private void storeValidators(File validatorsFile, Properties validators) {
+        File temporaryFile = new File(validatorsFile.getPath() + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+                validators.store(output, null);
+            }
+            Files.move(temporaryFile.toPath(), validatorsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Without the validators, the next download is just unconditional
+            temporaryFile.delete();
+            validatorsFile.delete();
+        }
+    }
+
+    private String getFileName(String url) {
+        return this.getDigest(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String getDigest(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Utils.toHex(digest.digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
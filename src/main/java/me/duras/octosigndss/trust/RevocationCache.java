@@ -0,0 +1,243 @@
+package me.duras.octosigndss.trust;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+
+import eu.europa.esig.dss.utils.Utils;
+
+/**
+ * Disk-backed cache of encoded OCSP responses and CRLs shared by all
+ * validations
+ *
+ * Entry is valid until the next update of the response. Least recently used
+ * entries are removed once the cache grows over its size limit. Files are read
+ * and the responses fetched without holding the lock of the cache.
+ *
+ * Each file starts with an HMAC over its name and the rest of the file, so a
+ * response moved to another entry or modified outside of the cache is not used.
+ */
+public class RevocationCache {
+    private File directory;
+    private File keyFile;
+    private long maxSize;
+    private long size = 0;
+
+    /**
+     * Entries in the order of access, the least recently used one first
+     */
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Responses being fetched, by the file name
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> fetches = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory where the responses are stored
+     * @param keyFile   key authenticating the stored responses, see
+     *                  {@link PrivateStorage#getKeyFile()}
+     * @param maxSize   maximum size of all stored responses in bytes
+     */
+    public RevocationCache(File directory, File keyFile, long maxSize) {
+        this.directory = directory;
+        this.keyFile = keyFile;
+        this.maxSize = maxSize;
+
+        directory.mkdirs();
+        File[] files = directory.listFiles((file) -> file.isFile() && file.getName().endsWith(".bin"));
+        if (files != null) {
+            // Modification time is the time of the last access
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                this.entries.put(file.getName(), new Entry(file, file.length()));
+                this.size += file.length();
+            }
+        }
+    }
+
+    /**
+     * Uses the cached response or fetches it unless the same one is already
+     * being fetched, then it waits for that fetch and uses the cached response
+     *
+     * Only the callers asking for the same response wait for each other. Each
+     * call counts as one hit or miss of the cache.
+     *
+     * @param fetch  fetches the response and puts it to the cache
+     * @param cached gets the response from the cache
+     */
+    public <T> T fetchOnce(String type, String key, Supplier<T> fetch, Supplier<T> cached) {
+        T cachedResponse = cached.get();
+        if (cachedResponse != null) {
+            this.hits.incrementAndGet();
+            return cachedResponse;
+        }
+        this.misses.incrementAndGet();
+
+        String name = this.getFileName(type, key);
+        CompletableFuture<Void> fetching = new CompletableFuture<>();
+        CompletableFuture<Void> running = this.fetches.putIfAbsent(name, fetching);
+        if (running != null) {
+            running.join();
+            T response = cached.get();
+            // Failed or the response can't be cached, try again
+            return response != null ? response : fetch.get();
+        }
+
+        try {
+            return fetch.get();
+        } finally {
+            this.fetches.remove(name, fetching);
+            fetching.complete(null);
+        }
+    }
+
+    /**
+     * @return encoded response or null if there is no valid one
+     */
+    public byte[] get(String type, String key) {
+        String name = this.getFileName(type, key);
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(name);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        // The file is replaced atomically, so it is read whole even if it is replaced in the meantime
+        try {
+            byte[] bytes = Files.readAllBytes(entry.file.toPath());
+            Mac mac = PrivateStorage.getMac(this.keyFile, false);
+            if (mac == null || bytes.length < PrivateStorage.MAC_LENGTH + Long.BYTES) {
+                this.remove(name, entry);
+                return null;
+            }
+
+            mac.update(name.getBytes(StandardCharsets.UTF_8));
+            mac.update(bytes, PrivateStorage.MAC_LENGTH, bytes.length - PrivateStorage.MAC_LENGTH);
+            long nextUpdate = ByteBuffer.wrap(bytes, PrivateStorage.MAC_LENGTH, Long.BYTES).getLong();
+            if (!MessageDigest.isEqual(Arrays.copyOf(bytes, PrivateStorage.MAC_LENGTH), mac.doFinal())
+                    || nextUpdate < System.currentTimeMillis()) {
+                this.remove(name, entry);
+                return null;
+            }
+
+            entry.file.setLastModified(System.currentTimeMillis());
+            return Arrays.copyOfRange(bytes, PrivateStorage.MAC_LENGTH + Long.BYTES, bytes.length);
+        } catch (IOException | GeneralSecurityException e) {
+            this.remove(name, entry);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the response, responses without the next update are not stored
+     */
+    public synchronized void put(String type, String key, byte[] encoded, Date nextUpdate) {
+        if (nextUpdate == null || nextUpdate.getTime() < System.currentTimeMillis()) {
+            return;
+        }
+
+        String name = this.getFileName(type, key);
+        File file = new File(this.directory, name);
+        File temporaryFile = new File(this.directory, name + ".tmp");
+        byte[] header = ByteBuffer.allocate(Long.BYTES).putLong(nextUpdate.getTime()).array();
+        try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+            Mac mac = PrivateStorage.getMac(this.keyFile, true);
+            if (mac == null) {
+                throw new IOException("Unable to read the key of the cache.");
+            }
+
+            mac.update(name.getBytes(StandardCharsets.UTF_8));
+            mac.update(header);
+            output.write(mac.doFinal(encoded));
+            output.write(header);
+            output.write(encoded);
+        } catch (IOException | GeneralSecurityException e) {
+            temporaryFile.delete();
+            return;
+        }
+
+        try {
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            return;
+        }
+
+        Entry previous = this.entries.put(name, new Entry(file, file.length()));
+        this.size += file.length() - (previous != null ? previous.size : 0);
+        this.evict();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            entry.file.delete();
+            this.size -= entry.size;
+        }
+    }
+
+    /**
+     * Removes the entry unless it was replaced in the meantime
+     */
+    private synchronized void remove(String name, Entry entry) {
+        if (this.entries.remove(name, entry)) {
+            entry.file.delete();
+            this.size -= entry.size;
+        }
+    }
+
+    private String getFileName(String type, String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return type + "-" + Utils.toHex(digest.digest(key.getBytes(StandardCharsets.UTF_8))) + ".bin";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private File file;
+        private long size;
+
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package me.duras.octosigndss.trust;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the LOTL/TL analysis tasks (download, parsing and signature validation)
+ * with bounded parallelism and a timeout for each task
+ */
+public class TLTaskExecutor {
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * Time limit of a single task in seconds
+     */
+    public static final long DEFAULT_TASK_TIMEOUT = 60;
+
+    private ExecutorService executorService;
+    private ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "tl-task-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Limits the running tasks, needed only for virtual threads since the pool
+     * of platform threads is already bounded
+     */
+    private Semaphore permits;
+
+    private int parallelism;
+    private long taskTimeout;
+
+    /**
+     * @param parallelism    maximum number of tasks running at once
+     * @param virtualThreads use virtual threads if the runtime supports them
+     *                       (tasks spend most of the time waiting for the
+     *                       network)
+     * @param taskTimeout    time limit of a single task in seconds
+     */
+    public TLTaskExecutor(int parallelism, boolean virtualThreads, long taskTimeout) {
+        this.parallelism = Math.max(1, parallelism);
+        this.taskTimeout = TimeUnit.SECONDS.toMillis(taskTimeout);
+
+        ExecutorService virtualThreadExecutor = virtualThreads ? TLTaskExecutor.newVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            this.executorService = virtualThreadExecutor;
+            this.permits = new Semaphore(this.parallelism);
+        } else {
+            this.executorService = Executors.newFixedThreadPool(this.parallelism, (runnable) -> {
+                Thread thread = new Thread(runnable, "tl-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Interruption doesn't stop blocking socket reads, so this should be used as
+     * the timeouts of the data loader as well
+     *
+     * @return time limit of a single task in ms
+     */
+    public long getTaskTimeout() {
+        return this.taskTimeout;
+    }
+
+    /**
+     * Runs the tasks and waits until all of them finish or time out
+     *
+     * @param tasks creates the task counting down the given latch once done
+     * @return critical path - duration of the longest task in ms
+     */
+    public long execute(List<Function<CountDownLatch, Runnable>> tasks) {
+        CountDownLatch latch = new CountDownLatch(tasks.size());
+        AtomicLong longestTask = new AtomicLong();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Function<CountDownLatch, Runnable> task : tasks) {
+            Runnable runnable = task.apply(latch);
+            futures.add(this.executorService.submit(() -> this.run(runnable, longestTask)));
+        }
+
+        // Each task has its own timeout, this only covers tasks that ignore the interruption
+        long waves = (tasks.size() + (long) this.parallelism - 1) / this.parallelism;
+        try {
+            if (!latch.await(this.taskTimeout * waves + this.taskTimeout, TimeUnit.MILLISECONDS)) {
+                futures.forEach((future) -> future.cancel(true));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(longestTask.get());
+    }
+
+    private void run(Runnable runnable, AtomicLong longestTask) {
+        boolean acquired = false;
+        try {
+            if (this.permits != null) {
+                this.permits.acquire();
+                acquired = true;
+            }
+
+            TaskTimeout taskTimeout = new TaskTimeout(Thread.currentThread());
+            ScheduledFuture<?> timeout = this.timeoutScheduler.schedule(taskTimeout, this.taskTimeout,
+                    TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                timeout.cancel(false);
+                taskTimeout.finish();
+                longestTask.accumulateAndGet(System.nanoTime() - start, Math::max);
+                // Do not leak the interruption to the next task of the pool thread, the timeout can't interrupt anymore
+                Thread.interrupted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (acquired) {
+                this.permits.release();
+            }
+        }
+    }
+
+    /**
+     * Interrupts the thread of the task unless the task already finished
+     *
+     * The timeout can fire while the task is finishing, the lock makes sure it
+     * either interrupts before the interruption is cleared or not at all.
+     */
+    private static class TaskTimeout implements Runnable {
+        private final Thread thread;
+        private boolean finished = false;
+
+        TaskTimeout(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!this.finished) {
+                this.thread.interrupt();
+            }
+        }
+
+        synchronized void finish() {
+            this.finished = true;
+        }
+    }
+
+    /**
+     * Virtual threads are not available in the bundled Java 11 runtime, so they
+     * are looked up reflectively
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -1,8 +1,20 @@
 package me.duras.octosigndss.trust;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import eu.europa.esig.dss.service.http.commons.CommonsDataLoader;
 import eu.europa.esig.dss.service.http.commons.FileCacheDataLoader;
@@ -14,27 +26,380 @@ import eu.europa.esig.dss.spi.x509.KeyStoreCertificateSource;
 import eu.europa.esig.dss.tsl.cache.CacheCleaner;
 import eu.europa.esig.dss.tsl.function.OfficialJournalSchemeInformationURI;
 import eu.europa.esig.dss.tsl.source.LOTLSource;
+import me.duras.octosigndss.OperationException;
 
 public class TrustLoader {
     private static final String LOTL_URL = "https://ec.europa.eu/tools/lotl/eu-lotl.xml";
     private static final String OJ_URL = "https://eur-lex.europa.eu/legal-content/EN/TXT/?uri=uriserv:OJ.C_.2019.276.01.0001.01.ENG";
-    private final TrustedListsCertificateSource trustedListsCertificateSource = new TrustedListsCertificateSource();
+    private static final long CACHE_EXPIRATION = 2 * 60 * 60 * 1000;
 
-    public void load(Set<String> requiredCountries) {
-        LazyTLValidationJob job = new LazyTLValidationJob(requiredCountries);
+    /**
+     * Certificate source used by the validations, it is never modified once
+     * published - every refresh builds a new one and swaps it here
+     */
+    private final AtomicReference<TrustedListsCertificateSource> trustedListsCertificateSource = new AtomicReference<>(
+            new TrustedListsCertificateSource());
+
+    private final TrustSnapshot snapshot = new TrustSnapshot(snapshotFile(), tlCacheDirectory(), CACHE_EXPIRATION);
+
+    /**
+     * Countries of all the loaded trusted lists
+     */
+    private final Set<String> countries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Kept between loads so the parsed and validated lists are reused in the
+     * long-lived process
+     */
+    private volatile LazyTLValidationJob job;
+
+    /**
+     * Used for the offline refresh so it never waits for the online one
+     */
+    private LazyTLValidationJob offlineJob;
+
+    /**
+     * Countries covered by the published certificate source
+     */
+    private Set<String> publishedCountries = new HashSet<>();
+    private boolean publishedOnline = false;
+    private String publishedVersion;
+    private final Object publishLock = new Object();
+
+    private ScheduledExecutorService refreshScheduler;
+
+    /**
+     * Shared by the online and offline jobs, null to use the job default
+     */
+    private TLTaskExecutor taskExecutor;
+
+    /**
+     * Offline-first mode, see {@link #setOfflineFirst(long, long)}
+     */
+    private boolean offlineFirst = false;
+    private long maxAge;
+    private long refreshDeadline;
+    private ExecutorService onlineRefreshExecutor;
+    private Future<?> onlineRefresh;
+
+    private volatile long lastRefreshDuration = -1;
+    private volatile long lastRefreshSuccess = -1;
+    private volatile String lastRefreshError;
+
+    /**
+     * Makes sure the trusted lists of the countries are loaded
+     *
+     * This returns immediately if the certificate source of the countries was
+     * already published and either the background refresh is running or the
+     * last online refresh is still fresh. Otherwise only the trusted lists of
+     * the countries not loaded yet are refreshed.
+     *
+     * @param requiredCountries lower-case country codes, see {@link CountryParser}
+     * @return false if the online refresh didn't finish before the deadline and
+     *         cached trusted lists older than the freshness budget are used or
+     *         the trusted lists of some countries are missing
+     */
+    public boolean load(Set<String> requiredCountries) {
+        if (this.isLoaded(requiredCountries)) {
+            return true;
+        }
+
+        this.countries.addAll(requiredCountries);
+        if (!this.offlineFirst) {
+            this.refresh(false);
+            return true;
+        }
+
+        return this.loadOfflineFirst();
+    }
+
+    /**
+     * @return true if {@link #load(Set)} of the countries would return at once
+     */
+    public boolean isLoaded(Set<String> requiredCountries) {
+        return this.refreshScheduler != null ? this.isPublished(requiredCountries)
+                : this.isRefreshed(requiredCountries);
+    }
+
+    /**
+     * Serve the cached trusted lists first and go online only if they are stale
+     *
+     * @param maxAge          freshness budget - how old (in minutes) the cached
+     *                        trusted lists can be to be used without going online
+     * @param refreshDeadline how long (in seconds) to wait for the online refresh
+     *                        of stale trusted lists before using the cached ones
+     */
+    public synchronized void setOfflineFirst(long maxAge, long refreshDeadline) {
+        this.offlineFirst = true;
+        this.maxAge = TimeUnit.MINUTES.toMillis(maxAge);
+        this.refreshDeadline = TimeUnit.SECONDS.toMillis(refreshDeadline);
+        this.onlineRefreshExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "tl-online-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public TrustedListsCertificateSource getTrustedCertificateSource() {
+        return this.trustedListsCertificateSource.get();
+    }
+
+    /**
+     * Refreshes the loaded trusted lists periodically in the background
+     *
+     * @param interval minutes between the end of one refresh and start of the
+     *                 next one
+     */
+    public synchronized void startBackgroundRefresh(long interval) {
+        if (this.refreshScheduler != null) {
+            return;
+        }
+
+        this.refreshScheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "tl-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refreshScheduler.scheduleWithFixedDelay(() -> {
+            if (this.countries.isEmpty()) {
+                return;
+            }
+
+            try {
+                this.refresh(true);
+            } catch (Exception e) {
+                // Keep using the current certificate source and try again next time
+                this.lastRefreshError = e.getMessage();
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+    }
+
+    public synchronized void setTaskExecutor(TLTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * @return critical path of the last online refresh in ms or -1 if there was
+     *         none, see {@link LazyTLValidationJob#getLastCriticalPath()}
+     */
+    public long getLastRefreshCriticalPath() {
+        LazyTLValidationJob job = this.job;
+        return job != null ? job.getLastCriticalPath() : -1;
+    }
+
+    /**
+     * @return duration of the last successful refresh in ms or -1 if there was none
+     */
+    public long getLastRefreshDuration() {
+        return this.lastRefreshDuration;
+    }
+
+    /**
+     * @return time of the last successful refresh in ms since the epoch or -1 if
+     *         there was none
+     */
+    public long getLastRefreshSuccess() {
+        return this.lastRefreshSuccess;
+    }
+
+    /**
+     * Identifies the trusted lists in the certificate source - changes whenever
+     * the cached trusted list files change
+     *
+     * @param certificateSource source used by the validation, see
+     *                          {@link #getTrustedCertificateSource()}
+     * @return version or null if the source is not the published one anymore or
+     *         its trusted list files couldn't be read
+     */
+    public String getTrustVersion(TrustedListsCertificateSource certificateSource) {
+        synchronized (this.publishLock) {
+            return this.trustedListsCertificateSource.get() == certificateSource ? this.publishedVersion : null;
+        }
+    }
+
+    /**
+     * @return error of the last failed background refresh or null
+     */
+    public String getLastRefreshError() {
+        return this.lastRefreshError;
+    }
+
+    /**
+     * Builds new certificate source off to the side and publishes it once done
+     *
+     * @param full refresh the trusted lists of all the countries, otherwise only
+     *             the countries added since the last fresh refresh are analysed
+     */
+    private synchronized void refresh(boolean full) {
+        // Countries could have been refreshed by another load while this one waited
+        if (!full && this.isRefreshed(this.countries)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Set<String> requiredCountries = new HashSet<>(this.countries);
+        TrustedListsCertificateSource certificateSource = new TrustedListsCertificateSource();
+
+        // Skip parsing and validation of the trusted lists if nothing changed since the last time, once the
+        // snapshot is published the next refresh goes online
+        long snapshotTime = this.job == null && !this.isPublished(requiredCountries)
+                ? this.snapshot.restore(requiredCountries, certificateSource)
+                : -1;
+        if (snapshotTime < 0) {
+            // Restored countries are not in the cache of the new job
+            if (this.job == null) {
+                this.job = createJob();
+                full = true;
+            }
+
+            this.job.setTrustedListCertificateSource(certificateSource);
+            this.job.addRequiredCountries(requiredCountries);
+            Set<String> refreshedCountries;
+            if (full || !this.isFresh(this.lastRefreshSuccess)) {
+                this.job.onlineRefresh();
+                refreshedCountries = requiredCountries;
+            } else {
+                refreshedCountries = this.job.onlineRefreshAddedCountries();
+            }
+
+            this.snapshot.store(requiredCountries, certificateSource);
+            refreshedCountries.forEach(TrustLoader::touchOnlineRefreshMarker);
+        }
+
+        // Restored snapshot is not online, it is as old as the refresh that stored it
+        this.publish(certificateSource, requiredCountries, snapshotTime < 0);
+        this.lastRefreshDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.lastRefreshSuccess = snapshotTime < 0 ? System.currentTimeMillis() : snapshotTime;
+        this.lastRefreshError = null;
+    }
+
+    /**
+     * Only the countries refreshed online before are in the cache, the other
+     * ones (and the stale ones) wait for the online refresh until the deadline
+     */
+    private boolean loadOfflineFirst() {
+        Set<String> requiredCountries = new HashSet<>(this.countries);
+        Set<String> cachedCountries = requiredCountries.stream()
+                .filter((country) -> onlineRefreshMarker(country).exists()).collect(Collectors.toSet());
+
+        synchronized (this.publishLock) {
+            if (!cachedCountries.isEmpty() && !this.publishedCountries.containsAll(cachedCountries)) {
+                TrustedListsCertificateSource certificateSource = new TrustedListsCertificateSource();
+                if (this.snapshot.restore(cachedCountries, certificateSource) < 0) {
+                    if (this.offlineJob == null) {
+                        this.offlineJob = createJob();
+                    }
+
+                    this.offlineJob.setTrustedListCertificateSource(certificateSource);
+                    this.offlineJob.addRequiredCountries(cachedCountries);
+                    this.offlineJob.offlineRefresh();
+                }
+
+                this.publish(certificateSource, cachedCountries, false);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        boolean isFresh = cachedCountries.size() == requiredCountries.size() && cachedCountries.stream()
+                .allMatch((country) -> now - onlineRefreshMarker(country).lastModified() <= this.maxAge);
+        if (isFresh) {
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + this.refreshDeadline;
+        try {
+            // Refresh already running could have started before the countries were added
+            while (true) {
+                Future<?> onlineRefresh;
+                synchronized (this.onlineRefreshExecutor) {
+                    if (this.onlineRefresh == null || this.onlineRefresh.isDone()) {
+                        this.onlineRefresh = this.onlineRefreshExecutor.submit(() -> this.refresh(false));
+                    }
+                    onlineRefresh = this.onlineRefresh;
+                }
+
+                onlineRefresh.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (this.isPublished(requiredCountries)) {
+                    return true;
+                }
+            }
+        } catch (TimeoutException e) {
+            // The refresh keeps running and its result is published once it is done
+            return false;
+        } catch (ExecutionException e) {
+            this.lastRefreshError = e.getCause().getMessage();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Countries are added to the loaded ones before their refresh is done, only
+     * the published ones can be used right away
+     */
+    private boolean isPublished(Set<String> requiredCountries) {
+        synchronized (this.publishLock) {
+            return this.publishedCountries.containsAll(requiredCountries);
+        }
+    }
+
+    /**
+     * @return true if the countries were published by an online refresh that is
+     *         still fresh
+     */
+    private boolean isRefreshed(Set<String> requiredCountries) {
+        synchronized (this.publishLock) {
+            return this.publishedOnline && this.publishedCountries.containsAll(requiredCountries)
+                    && this.isFresh(this.lastRefreshSuccess);
+        }
+    }
+
+    private boolean isFresh(long refreshTime) {
+        return refreshTime >= 0
+                && System.currentTimeMillis() - refreshTime <= (this.offlineFirst ? this.maxAge : CACHE_EXPIRATION);
+    }
+
+    /**
+     * Cached (offline) result never replaces the result of the online refresh
+     */
+    private void publish(TrustedListsCertificateSource certificateSource, Set<String> countries, boolean online) {
+        // Trusted list files are read before the validations have to wait for the lock
+        String version = this.getVersion();
+        synchronized (this.publishLock) {
+            if (!online && this.publishedCountries.containsAll(countries)) {
+                return;
+            }
+
+            this.trustedListsCertificateSource.set(certificateSource);
+            this.publishedCountries = countries;
+            this.publishedOnline = online;
+            this.publishedVersion = version;
+        }
+    }
+
+    /**
+     * Version of the trusted list files the certificate source was just built
+     * from
+     */
+    private String getVersion() {
+        return this.snapshot.getCacheDigest();
+    }
+
+    private LazyTLValidationJob createJob() {
+        LazyTLValidationJob job = new LazyTLValidationJob();
         job.setOfflineDataLoader(offlineLoader());
         job.setOnlineDataLoader(onlineLoader());
-        job.setTrustedListCertificateSource(this.trustedListsCertificateSource);
         job.setCacheCleaner(cacheCleaner());
+        if (this.taskExecutor != null) {
+            job.setTaskExecutor(this.taskExecutor);
+        }
 
         LOTLSource europeanLOTL = europeanLOTL();
         job.setListOfTrustedListSources(europeanLOTL);
 
-        job.onlineRefresh();
-    }
-
-    public TrustedListsCertificateSource getTrustedCertificateSource() {
-        return this.trustedListsCertificateSource;
+        return job;
     }
 
     private LOTLSource europeanLOTL() {
@@ -50,10 +415,8 @@ public class TrustLoader {
         try {
             return new KeyStoreCertificateSource(Paths.get("keystore.p12").toFile(), "PKCS12", "dss-password");
         } catch (Exception e) {
-            System.err.println("Unable to load EU LOTL Certificate.");
-            System.err.println("This is probably due to corrupted installation.");
-            System.exit(1);
-            return null;
+            throw new OperationException(
+                    "Unable to load EU LOTL Certificate.\nThis is probably due to corrupted installation.", e);
         }
     }
 
@@ -67,7 +430,7 @@ public class TrustLoader {
 
     private DSSFileLoader onlineLoader() {
         FileCacheDataLoader onlineFileLoader = new FileCacheDataLoader();
-        onlineFileLoader.setCacheExpirationTime(2 * 60 * 60 * 1000);
+        onlineFileLoader.setCacheExpirationTime(CACHE_EXPIRATION);
         onlineFileLoader.setDataLoader(dataLoader());
         onlineFileLoader.setFileCacheDirectory(tlCacheDirectory());
         return onlineFileLoader;
@@ -80,8 +443,42 @@ public class TrustLoader {
         return tslCache;
     }
 
+    /**
+     * Modified after every successful online refresh of the country, its trusted
+     * lists are in the cache once it exists
+     */
+    private static File onlineRefreshMarker(String country) {
+        File markers = new File(System.getProperty("java.io.tmpdir"), "octosign-tl-online-refresh");
+        markers.mkdirs();
+        return new File(markers, country);
+    }
+
+    private static void touchOnlineRefreshMarker(String country) {
+        File marker = onlineRefreshMarker(country);
+        try {
+            marker.createNewFile();
+            marker.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            // Without the marker the cached trusted lists are just considered stale
+        }
+    }
+
+    /**
+     * Snapshot is deserialized, so it is kept out of the shared temporary
+     * directory, its key is {@link PrivateStorage#getKeyFile()}
+     */
+    private File snapshotFile() {
+        return new File(PrivateStorage.getDirectory(), "trust.snapshot");
+    }
+
     private CommonsDataLoader dataLoader() {
-        return new ProxiedCommonsDataLoader();
+        CommonsDataLoader dataLoader = new ProxiedCommonsDataLoader(tlCacheDirectory());
+        // Blocking reads ignore the interruption of the timed out task, so the connection times out on its own
+        int timeout = (int) (this.taskExecutor != null ? this.taskExecutor.getTaskTimeout()
+                : TimeUnit.SECONDS.toMillis(TLTaskExecutor.DEFAULT_TASK_TIMEOUT));
+        dataLoader.setTimeoutConnection(timeout);
+        dataLoader.setTimeoutSocket(timeout);
+        return dataLoader;
     }
 
     private CacheCleaner cacheCleaner() {
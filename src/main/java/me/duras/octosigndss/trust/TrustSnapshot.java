@@ -0,0 +1,322 @@
+package me.duras.octosigndss.trust;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.tsl.LOTLInfo;
+import eu.europa.esig.dss.spi.tsl.TLInfo;
+import eu.europa.esig.dss.spi.tsl.TLValidationJobSummary;
+import eu.europa.esig.dss.spi.tsl.TrustProperties;
+import eu.europa.esig.dss.spi.tsl.TrustedListsCertificateSource;
+import eu.europa.esig.dss.utils.Utils;
+
+/**
+ * Synchronized trusted certificates stored on the disk so they can be restored
+ * without parsing and validating the trusted lists again
+ *
+ * Snapshot is versioned by the digest of the names, sizes and modification
+ * times of the files in the trusted list cache directory. It is used only if
+ * these files didn't change, it covers all the required countries and none of
+ * the trusted lists reached its next update.
+ *
+ * The snapshot is authenticated by an HMAC with a random key created next to
+ * it on the first store, so only the user owning the key can produce a
+ * snapshot that is restored. Only DSS and JDK classes are deserialized.
+ */
+public class TrustSnapshot {
+    private static final int FORMAT_VERSION = 3;
+
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config
+            .createFilter("maxdepth=64;java.lang.*;java.util.**;java.math.*;java.time.**;java.security.**;"
+                    + "javax.security.auth.x500.*;eu.europa.esig.dss.**;" + Content.class.getName() + ";!*");
+
+    private File snapshotFile;
+    private File keyFile;
+    private File tlCacheDirectory;
+    private long maxAge;
+
+    /**
+     * @param snapshotFile     where the snapshot is stored, its directory should
+     *                         be accessible only by the current user
+     * @param tlCacheDirectory directory with the cached trusted list files
+     * @param maxAge           how long (in ms) the snapshot can be used after it
+     *                         was stored
+     */
+    public TrustSnapshot(File snapshotFile, File tlCacheDirectory, long maxAge) {
+        this.snapshotFile = snapshotFile;
+        this.keyFile = new File(snapshotFile.getPath() + ".key");
+        this.tlCacheDirectory = tlCacheDirectory;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Fills the certificate source from the snapshot if it is usable
+     *
+     * @return time the snapshot was stored in ms since the epoch or -1 if the
+     *         certificate source was not filled
+     */
+    public long restore(Set<String> requiredCountries, TrustedListsCertificateSource certificateSource) {
+        if (!this.snapshotFile.isFile()) {
+            return -1;
+        }
+
+        try {
+            ByteBuffer buffer = this.authenticate();
+            if (buffer == null) {
+                return -1;
+            }
+
+            // Cheap header checks first, the content is deserialized only if all of them pass
+            if (buffer.getInt() != FORMAT_VERSION) {
+                return -1;
+            }
+
+            long storedAt = buffer.getLong();
+            long validUntil = buffer.getLong();
+            if (validUntil < System.currentTimeMillis()) {
+                return -1;
+            }
+
+            Set<String> countries = new HashSet<>(Arrays.asList(TrustSnapshot.getString(buffer).split(",")));
+            if (!countries.containsAll(requiredCountries)) {
+                return -1;
+            }
+
+            if (!TrustSnapshot.getString(buffer).equals(this.getCacheDigest())) {
+                return -1;
+            }
+
+            Content content;
+            try (ObjectInputStream input = new ObjectInputStream(new ByteBufferInputStream(buffer))) {
+                input.setObjectInputFilter(FILTER);
+                content = (Content) input.readObject();
+            }
+
+            certificateSource.setTrustPropertiesByCertificates(content.trustProperties);
+            certificateSource.setSummary(content.summary);
+
+            return storedAt;
+        } catch (Exception e) {
+            // Corrupted or incompatible snapshot is the same as no snapshot
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the synchronized certificate source, failure to do so is not fatal
+     */
+    public void store(Set<String> countries, TrustedListsCertificateSource certificateSource) {
+        Content content = new Content();
+        content.summary = certificateSource.getSummary();
+        for (CertificateToken certificate : certificateSource.getCertificates()) {
+            content.trustProperties.put(certificate, certificateSource.getTrustServices(certificate));
+        }
+
+        File temporaryFile = new File(this.snapshotFile.getPath() + ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporaryFile.toPath())) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (DataOutputStream bodyOutput = new DataOutputStream(body)) {
+                bodyOutput.writeInt(FORMAT_VERSION);
+                bodyOutput.writeLong(System.currentTimeMillis());
+                bodyOutput.writeLong(this.getValidUntil(content.summary));
+                TrustSnapshot.putString(bodyOutput, String.join(",", countries));
+                TrustSnapshot.putString(bodyOutput, this.getCacheDigest());
+
+                try (ObjectOutputStream objectOutput = new ObjectOutputStream(bodyOutput)) {
+                    objectOutput.writeObject(content);
+                }
+            }
+
+            Mac mac = PrivateStorage.getMac(this.keyFile, true);
+            output.write(mac.doFinal(body.toByteArray()));
+            body.writeTo(output);
+        } catch (Exception e) {
+            temporaryFile.delete();
+            return;
+        }
+
+        try {
+            Files.move(temporaryFile.toPath(), this.snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Version of the stored snapshot - digest of the trusted list files it was
+     * built from, read from the header only
+     *
+     * @return version or null if there is no usable snapshot
+     */
+    public String getVersion() {
+        if (!this.snapshotFile.isFile()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = this.authenticate();
+            if (buffer == null || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            buffer.getLong();
+            buffer.getLong();
+            TrustSnapshot.getString(buffer);
+            return TrustSnapshot.getString(buffer);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Version of the trusted list files the snapshot is (or would be) built from
+     *
+     * The files are replaced whenever a trusted list is downloaded again, so
+     * only their metadata is digested instead of reading all of them.
+     */
+    public String getCacheDigest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        File[] files = this.tlCacheDirectory.listFiles(File::isFile);
+        if (files == null) {
+            return "";
+        }
+
+        Arrays.sort(files);
+        ByteBuffer metadata = ByteBuffer.allocate(2 * Long.BYTES);
+        for (File file : files) {
+            digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            metadata.clear();
+            metadata.putLong(file.length()).putLong(file.lastModified());
+            digest.update(metadata.array());
+        }
+
+        return Utils.toHex(digest.digest());
+    }
+
+    /**
+     * @return content of the snapshot after the MAC or null if the MAC doesn't
+     *         match
+     */
+    private ByteBuffer authenticate() throws IOException, GeneralSecurityException {
+        // Read to the heap, a mapped file could not be replaced by the next store on Windows
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.snapshotFile.toPath()));
+        if (buffer.remaining() < PrivateStorage.MAC_LENGTH) {
+            return null;
+        }
+
+        byte[] expectedMac = new byte[PrivateStorage.MAC_LENGTH];
+        buffer.get(expectedMac);
+        ByteBuffer content = buffer.slice();
+
+        Mac mac = PrivateStorage.getMac(this.keyFile, false);
+        if (mac == null) {
+            return null;
+        }
+        mac.update(content.duplicate());
+
+        return MessageDigest.isEqual(expectedMac, mac.doFinal()) ? content : null;
+    }
+
+    private long getValidUntil(TLValidationJobSummary summary) {
+        long validUntil = System.currentTimeMillis() + this.maxAge;
+        if (summary == null) {
+            return validUntil;
+        }
+
+        for (LOTLInfo lotlInfo : summary.getLOTLInfos()) {
+            validUntil = Math.min(validUntil, this.getNextUpdate(lotlInfo, validUntil));
+            for (TLInfo tlInfo : lotlInfo.getTLInfos()) {
+                validUntil = Math.min(validUntil, this.getNextUpdate(tlInfo, validUntil));
+            }
+        }
+
+        return validUntil;
+    }
+
+    private long getNextUpdate(TLInfo info, long defaultValue) {
+        if (info.getParsingCacheInfo() == null) {
+            return defaultValue;
+        }
+
+        Date nextUpdate = info.getParsingCacheInfo().getNextUpdateDate();
+        return nextUpdate != null ? nextUpdate.getTime() : defaultValue;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static class Content implements Serializable {
+        private static final long serialVersionUID = -2291740582766370139L;
+
+        private Map<CertificateToken, List<TrustProperties>> trustProperties = new HashMap<>();
+        private TLValidationJobSummary summary;
+    }
+
+    /**
+     * Reads the snapshot buffer without copying it again
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package me.duras.octosigndss;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
 import org.junit.Test;
 
 /**
@@ -17,4 +23,44 @@ public class AppTest
     {
         assertTrue( true );
     }
+
+    /**
+     * Meta is run on every start of the application, DSS classes are loaded only
+     * by the operations that need them
+     */
+    @Test
+    public void metaShouldNotLoadDSSClasses() throws Exception
+    {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-verbose:class", "-cp", System.getProperty("java.class.path"),
+                App.class.getName(), "meta").redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        assertEquals(0, process.waitFor());
+        assertTrue(output.contains("--RESULT--"));
+        // HotSpot prints the class names with dots, OpenJ9 with slashes
+        assertFalse(output.contains("eu.europa.esig"));
+        assertFalse(output.contains("eu/europa/esig"));
+    }
+
+    /**
+     * Input closed in the middle of a question fails the operation and ends the
+     * session
+     */
+    @Test
+    public void serveShouldEndWhenInputClosesDuringQuestion() throws Exception
+    {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Doctosign.tlRefreshInterval=0", "-cp",
+                System.getProperty("java.class.path"), App.class.getName(), "serve").start();
+        try (OutputStream input = process.getOutputStream()) {
+            input.write("--OPERATION--\nsign-digest\n--OPERATION--\n".getBytes(StandardCharsets.UTF_8));
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8)
+                .replace("\r\n", "\n");
+
+        assertEquals(0, process.waitFor());
+        assertTrue(output.contains("--GETOPTION--"));
+        assertTrue(output.contains("--DONE--\n1\n--DONE--"));
+    }
 }
@@ -0,0 +1,53 @@
+package me.duras.octosigndss;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Self-signed PKCS #12 test key of a Slovak signer, shared by the tests and
+ * the benchmarks
+ */
+public class KeyStoreFixture {
+    public static final char[] PASSWORD = "password".toCharArray();
+
+    /**
+     * @param file where the key store is saved
+     */
+    public static File create(File file) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name name = new X500Name("CN=Test Signer,C=SK");
+        long now = System.currentTimeMillis();
+        X509Certificate certificate = new JcaX509CertificateConverter()
+                .getCertificate(new JcaX509v3CertificateBuilder(name, BigInteger.ONE,
+                        new Date(now - TimeUnit.DAYS.toMillis(1)), new Date(now + TimeUnit.DAYS.toMillis(365)), name,
+                        keyPair.getPublic()).build(new JcaContentSignerBuilder("SHA256withRSA")
+                                .build(keyPair.getPrivate())));
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("test", keyPair.getPrivate(), PASSWORD, new Certificate[] { certificate });
+
+        try (OutputStream output = new FileOutputStream(file)) {
+            keyStore.store(output, PASSWORD);
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+package me.duras.octosigndss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore.PasswordProtection;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.europa.esig.dss.enumerations.Indication;
+import eu.europa.esig.dss.spi.tsl.TrustedListsCertificateSource;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.token.Pkcs12SignatureToken;
+import me.duras.octosigndss.OperationVerify.Result;
+import me.duras.octosigndss.trust.RevocationCache;
+import me.duras.octosigndss.trust.TrustLoader;
+
+public class OperationVerifyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldTrustCertificatesLoadedAfterParsing() throws Exception {
+        File document = folder.newFile("document.xml");
+        Files.write(document.toPath(), "<document>1</document>".getBytes(StandardCharsets.UTF_8));
+
+        File signedDocument = folder.newFile("document-signed.xml");
+        TrustedListsCertificateSource trustedSource = new TrustedListsCertificateSource();
+        try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(KeyStoreFixture.create(folder.newFile("test.p12")),
+                new PasswordProtection(KeyStoreFixture.PASSWORD))) {
+            DSSPrivateKeyEntry privateKey = token.getKeys().get(0);
+            new Signer(token, privateKey, null).sign(document).save(signedDocument.getAbsolutePath());
+            trustedSource.addCertificate(privateKey.getCertificate());
+        }
+
+        // Trusted certificates are published only once the countries of the signatures are loaded
+        TrustLoader trustLoader = new TrustLoader() {
+            private TrustedListsCertificateSource published = new TrustedListsCertificateSource();
+
+            @Override
+            public boolean load(Set<String> requiredCountries) {
+                assertTrue(requiredCountries.contains("sk"));
+                this.published = trustedSource;
+                return true;
+            }
+
+            @Override
+            public TrustedListsCertificateSource getTrustedCertificateSource() {
+                return this.published;
+            }
+        };
+
+        OperationVerify operation = new OperationVerify(trustLoader,
+                new RevocationCache(folder.newFolder("revocation"), new File(folder.getRoot(), "key"), 1024 * 1024));
+        Result result = operation.verify(signedDocument.getAbsolutePath());
+
+        assertEquals("SIGNED", result.status);
+        assertEquals(Indication.TOTAL_PASSED,
+                result.report.getIndication(result.report.getFirstSignatureId()));
+    }
+}
@@ -0,0 +1,85 @@
+package me.duras.octosigndss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import me.duras.octosigndss.OperationVerify.Result;
+
+public class ResultCacheTest {
+    private static final String DIGEST = "47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=";
+    private static final Set<String> COUNTRIES = Collections.singleton("sk");
+
+    @Rule
+    public TemporaryFolder directory = new TemporaryFolder();
+
+    @Test
+    public void shouldReuseResultOnlyForTheSameTrustVersion() {
+        ResultCache cache = this.createCache();
+        cache.put(DIGEST, "v1", COUNTRIES, new Result("UNSIGNED"));
+
+        assertEquals("UNSIGNED", cache.get(DIGEST, "v1", (countries) -> true).status);
+        assertNull(cache.get(DIGEST, "v2", (countries) -> true));
+        // Stale entry is removed
+        assertNull(cache.get(DIGEST, "v1", (countries) -> true));
+    }
+
+    @Test
+    public void shouldReuseResultOnlyWithLoadedTrust() {
+        ResultCache cache = this.createCache();
+        cache.put(DIGEST, "v1", COUNTRIES, new Result("UNSIGNED"));
+
+        assertNull(cache.get(DIGEST, "v1", (countries) -> !countries.contains("sk")));
+        assertEquals("UNSIGNED", cache.get(DIGEST, "v1", (countries) -> countries.equals(COUNTRIES)).status);
+    }
+
+    @Test
+    public void shouldNotReuseExpiredResult() {
+        ResultCache cache = this.createCache();
+        cache.put(DIGEST, "v1", COUNTRIES, new Result("UNSIGNED", null, Collections.emptyList(), 0));
+
+        assertNull(cache.get(DIGEST, "v1", (countries) -> true));
+    }
+
+    @Test
+    public void shouldNotReuseModifiedResult() throws Exception {
+        ResultCache cache = this.createCache();
+        cache.put(DIGEST, "v1", COUNTRIES, new Result("INVALID"));
+
+        File[] files = new File(directory.getRoot(), "results").listFiles();
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertNull(cache.get(DIGEST, "v1", (countries) -> true));
+    }
+
+    @Test
+    public void shouldNotStoreUnknownOrAnnotatedResult() {
+        ResultCache cache = this.createCache();
+        cache.put(DIGEST, "v1", COUNTRIES, new Result("UNKNOWN"));
+        assertNull(cache.get(DIGEST, "v1", (countries) -> true));
+
+        cache.put(DIGEST, "v1", COUNTRIES,
+                new Result("UNSIGNED", null, Collections.singletonList("Outdated"), Long.MAX_VALUE));
+        assertNull(cache.get(DIGEST, "v1", (countries) -> true));
+
+        cache.put(DIGEST, null, COUNTRIES, new Result("UNSIGNED"));
+        assertNull(cache.get(DIGEST, null, (countries) -> true));
+    }
+
+    private ResultCache createCache() {
+        return new ResultCache(new File(directory.getRoot(), "results"), new File(directory.getRoot(), "key"), 60);
+    }
+}
@@ -0,0 +1,106 @@
+package me.duras.octosigndss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore.PasswordProtection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.token.Pkcs12SignatureToken;
+import eu.europa.esig.dss.utils.Utils;
+
+public class SignerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldSignFileLargerThanHeapWithDetachedSignature() throws Exception {
+        // Sparse file, several times larger than the heap (surefire runs with -Xmx64m)
+        File file = folder.newFile("archive.bin");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(Runtime.getRuntime().maxMemory() * 4);
+        }
+
+        try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(KeyStoreFixture.create(folder.newFile("test.p12")),
+                new PasswordProtection(KeyStoreFixture.PASSWORD))) {
+            DSSPrivateKeyEntry privateKey = token.getKeys().get(0);
+            Signer signer = new Signer(token, privateKey, null);
+            assertFalse(signer.isStreamed(file));
+
+            signer.setDetachedThreshold(1);
+            assertTrue(signer.isStreamed(file));
+            DSSDocument signature = signer.sign(file);
+
+            String content = new String(Utils.toByteArray(signature.openStream()), StandardCharsets.UTF_8);
+            assertTrue(content.contains("URI=\"archive.bin\""));
+            assertTrue(content.contains("DigestValue"));
+            assertTrue(signer.getDefaultSignedFilePath(file).endsWith("archive.bin.xml"));
+        }
+    }
+
+    @Test
+    public void shouldKeepPAdESForPdfOverDetachedThreshold() throws Exception {
+        File file = folder.newFile("contract.pdf");
+        try (PDDocument pdf = new PDDocument()) {
+            pdf.addPage(new PDPage());
+            pdf.save(file);
+        }
+
+        try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(KeyStoreFixture.create(folder.newFile("test.p12")),
+                new PasswordProtection(KeyStoreFixture.PASSWORD))) {
+            Signer signer = new Signer(token, token.getKeys().get(0), null);
+            signer.setDetachedThreshold(0);
+            assertFalse(signer.isStreamed(file));
+
+            DSSDocument signedDocument = signer.sign(file);
+            String content = new String(Utils.toByteArray(signedDocument.openStream()), StandardCharsets.ISO_8859_1);
+            assertTrue(content.startsWith("%PDF"));
+            assertTrue(content.contains("/ByteRange"));
+            assertTrue(signer.getDefaultSignedFilePath(file).endsWith("contract-signed.pdf"));
+        }
+    }
+
+    @Test
+    public void shouldCompletePipelinedFilesInOrder() throws Exception {
+        List<String> filePaths = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            File file = folder.newFile("document" + i + ".xml");
+            Files.write(file.toPath(), ("<document>" + i + "</document>").getBytes(StandardCharsets.UTF_8));
+            filePaths.add(file.getAbsolutePath());
+        }
+        // Failure in the first stage must not break the order
+        filePaths.add(3, new File(folder.getRoot(), "missing.xml").getAbsolutePath());
+
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(KeyStoreFixture.create(folder.newFile("test.p12")),
+                new PasswordProtection(KeyStoreFixture.PASSWORD))) {
+            Signer signer = new Signer(token, token.getKeys().get(0), null);
+            Queue<String> queue = new LinkedList<>(filePaths);
+
+            new SigningPipeline(signer, 1).run(queue::poll, (filePath, signedDocument) -> {
+                assertTrue(new String(Utils.toByteArray(signedDocument.openStream()), StandardCharsets.UTF_8)
+                        .contains("SignatureValue"));
+                completed.add(filePath);
+            }, (filePath, e) -> completed.add(filePath));
+        }
+
+        assertEquals(filePaths, completed);
+    }
+}
@@ -0,0 +1,106 @@
+package me.duras.octosigndss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+
+public class TspSourcePoolTest {
+    private static final byte[] DIGEST = new byte[32];
+
+    @Test
+    public void shouldHedgeSlowServer() {
+        StubServer slow = new StubServer("slow", 5000, false);
+        StubServer fast = new StubServer("fast", 0, false);
+        TspSourcePool pool = new TspSourcePool(Arrays.asList(slow, fast), 50);
+
+        long start = System.nanoTime();
+        TimestampBinary timestamp = pool.getTimeStampResponse(DigestAlgorithm.SHA256, DIGEST);
+
+        assertArrayEquals(fast.response(), timestamp.getBytes());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, slow.requests.get());
+    }
+
+    @Test
+    public void shouldFailOverAndAvoidFailedServer() {
+        StubServer broken = new StubServer("broken", 0, true);
+        StubServer working = new StubServer("working", 0, false);
+        TspSourcePool pool = new TspSourcePool(Arrays.asList(broken, working), 5000);
+
+        assertArrayEquals(working.response(), pool.getTimeStampResponse(DigestAlgorithm.SHA256, DIGEST).getBytes());
+        assertArrayEquals(working.response(), pool.getTimeStampResponse(DigestAlgorithm.SHA256, DIGEST).getBytes());
+
+        assertEquals(1, broken.requests.get());
+        assertEquals(2, working.requests.get());
+    }
+
+    @Test
+    public void shouldPreferFastestServer() {
+        StubServer slower = new StubServer("slower", 100, false);
+        StubServer faster = new StubServer("faster", 10, false);
+        TspSourcePool pool = new TspSourcePool(Arrays.asList(slower, faster), 5000);
+
+        // Both are measured first, then the faster one is used
+        for (int i = 0; i < 4; i++) {
+            pool.getTimeStampResponse(DigestAlgorithm.SHA256, DIGEST);
+        }
+
+        assertEquals(1, slower.requests.get());
+        assertEquals(3, faster.requests.get());
+    }
+
+    @Test(expected = DSSException.class)
+    public void shouldFailIfAllServersFail() {
+        TspSourcePool pool = new TspSourcePool(
+                Arrays.asList(new StubServer("first", 0, true), new StubServer("second", 0, true)), 50);
+
+        pool.getTimeStampResponse(DigestAlgorithm.SHA256, DIGEST);
+    }
+
+    private static class StubServer implements TSPSource {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long delay;
+        private final boolean failing;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        StubServer(String name, long delay, boolean failing) {
+            this.name = name;
+            this.delay = delay;
+            this.failing = failing;
+        }
+
+        byte[] response() {
+            return this.name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) {
+            this.requests.incrementAndGet();
+            try {
+                Thread.sleep(this.delay);
+            } catch (InterruptedException e) {
+                throw new DSSException(e);
+            }
+
+            if (this.failing) {
+                throw new DSSException("Stub " + this.name + " is down");
+            }
+
+            return new TimestampBinary(this.response());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package me.duras.octosigndss.trust;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CountryParserTest {
+    /**
+     * Regular expression the parser replaced
+     */
+    private static final Pattern canonicalizedCountryPattern = Pattern.compile(".*,?c=(\\w+),?.*",
+            Pattern.CASE_INSENSITIVE);
+
+    @Test
+    public void shouldMatchRegularExpression() {
+        String[] subjects = {
+            "cn=jozef mrkvicka,serialnumber=pnosk-1234567890,givenname=jozef,sn=mrkvicka,c=sk",
+            "c=cz,o=česká pošta\\, s.p.,cn=postsignum qualified ca 4",
+            "cn=qualified ca,o=disig a.s.,l=bratislava,c=sk,2.5.4.97=#0c0e4e5452534b2d3335393735393436",
+            "cn=root,o=example+c=at",
+            "c=de",
+        };
+
+        for (String subject : subjects) {
+            Matcher matcher = canonicalizedCountryPattern.matcher(subject);
+            matcher.find();
+            assertEquals(subject, matcher.group(1), CountryParser.parse(subject));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreOtherAttributes() {
+        assertNull(CountryParser.parse("cn=example,dc=com"));
+        assertNull(CountryParser.parse("cn=c=sk\\,fake,o=example"));
+        assertNull(CountryParser.parse(""));
+    }
+
+    @Test
+    public void shouldReturnLowerCaseCountry() {
+        assertEquals("sk", CountryParser.parse("CN=Test Signer,C=SK"));
+        assertSame(CountryParser.parse("cn=a,c=sk"), CountryParser.parse("CN=b,C=Sk"));
+    }
+
+    @Test
+    public void shouldReuseTwoLetterCountries() {
+        assertSame(CountryParser.parse("cn=a,c=sk"), CountryParser.parse("cn=b,c=sk"));
+    }
+}
@@ -0,0 +1,90 @@
+package me.duras.octosigndss.trust;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.europa.esig.dss.service.http.commons.FileCacheDataLoader;
+
+public class ProxiedCommonsDataLoaderTest {
+    private static final byte[] TRUSTED_LIST = "<TrustServiceStatusList/>".getBytes(StandardCharsets.UTF_8);
+    private static final String ETAG = "\"tl-1\"";
+
+    @Rule
+    public TemporaryFolder cacheDirectory = new TemporaryFolder();
+
+    private HttpServer server;
+    private List<String> responses = new ArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/fetch", this::handle);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldDownloadUnchangedListOnlyOnce() {
+        ProxiedCommonsDataLoader loader = new ProxiedCommonsDataLoader(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/", cacheDirectory.getRoot());
+        // Unchanged list is read from the file of the file loader
+        FileCacheDataLoader fileLoader = new FileCacheDataLoader(loader);
+        fileLoader.setFileCacheDirectory(cacheDirectory.getRoot());
+
+        assertArrayEquals(TRUSTED_LIST, fileLoader.get("https://example.com/tl.xml", true));
+        assertArrayEquals(TRUSTED_LIST, fileLoader.get("https://example.com/tl.xml", true));
+
+        assertEquals("200 gzip", responses.get(0));
+        assertEquals("304", responses.get(1));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            responses.add("304");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = TRUSTED_LIST;
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        responses.add(gzip ? "200 gzip" : "200");
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package me.duras.octosigndss.trust;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RevocationCacheTest {
+    private static final byte[] RESPONSE = "response".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder directory = new TemporaryFolder();
+
+    @Test
+    public void shouldFetchSameResponseOnce() throws Exception {
+        RevocationCache cache = this.createCache();
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> cache.fetchOnce("ocsp", "key", () -> {
+            fetches.incrementAndGet();
+            fetching.countDown();
+            await(release);
+            cache.put("ocsp", "key", RESPONSE, new Date(System.currentTimeMillis() + 60000));
+            return RESPONSE;
+        }, () -> cache.get("ocsp", "key")));
+        fetching.await();
+
+        AtomicReference<byte[]> second = new AtomicReference<>();
+        Thread secondThread = new Thread(() -> second.set(cache.fetchOnce("ocsp", "key", () -> {
+            fetches.incrementAndGet();
+            return null;
+        }, () -> cache.get("ocsp", "key"))));
+        secondThread.start();
+        while (secondThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        // Other responses don't wait for the running fetch
+        assertNull(cache.fetchOnce("ocsp", "other", () -> null, () -> null));
+
+        release.countDown();
+        assertArrayEquals(RESPONSE, first.get(5, TimeUnit.SECONDS));
+        secondThread.join(5000);
+        assertArrayEquals(RESPONSE, second.get());
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void shouldNotReuseExpiredResponse() {
+        RevocationCache cache = this.createCache();
+        cache.put("crl", "key", RESPONSE, new Date(System.currentTimeMillis() - 1));
+
+        assertNull(cache.get("crl", "key"));
+    }
+
+    @Test
+    public void shouldNotReuseModifiedResponse() throws Exception {
+        RevocationCache cache = this.createCache();
+        cache.put("ocsp", "key", RESPONSE, new Date(System.currentTimeMillis() + 60000));
+
+        File[] files = new File(directory.getRoot(), "responses").listFiles();
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertNull(cache.get("ocsp", "key"));
+    }
+
+    @Test
+    public void shouldCountEachLookupOnce() {
+        RevocationCache cache = this.createCache();
+        cache.put("ocsp", "key", RESPONSE, new Date(System.currentTimeMillis() + 60000));
+
+        assertArrayEquals(RESPONSE, cache.fetchOnce("ocsp", "key", () -> null, () -> cache.get("ocsp", "key")));
+        assertNull(cache.fetchOnce("ocsp", "other", () -> null, () -> cache.get("ocsp", "other")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    private RevocationCache createCache() {
+        return new RevocationCache(new File(directory.getRoot(), "responses"), new File(directory.getRoot(), "key"),
+                1024 * 1024);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
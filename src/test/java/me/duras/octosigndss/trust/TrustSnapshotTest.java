@@ -0,0 +1,81 @@
+package me.duras.octosigndss.trust;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.europa.esig.dss.spi.tsl.TrustedListsCertificateSource;
+
+public class TrustSnapshotTest {
+    private static final Set<String> COUNTRIES = Collections.singleton("sk");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreStoredSnapshot() throws Exception {
+        TrustSnapshot snapshot = this.createSnapshot();
+        snapshot.store(COUNTRIES, new TrustedListsCertificateSource());
+
+        assertTrue(snapshot.restore(COUNTRIES, new TrustedListsCertificateSource()) > 0);
+        assertNotNull(snapshot.getVersion());
+    }
+
+    @Test
+    public void shouldNotRestoreModifiedSnapshot() throws Exception {
+        TrustSnapshot snapshot = this.createSnapshot();
+        snapshot.store(COUNTRIES, new TrustedListsCertificateSource());
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "trust.snapshot"), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertEquals(-1, snapshot.restore(COUNTRIES, new TrustedListsCertificateSource()));
+        assertNull(snapshot.getVersion());
+    }
+
+    @Test
+    public void shouldNotRestoreSnapshotOfAnotherKey() throws Exception {
+        this.createSnapshot().store(COUNTRIES, new TrustedListsCertificateSource());
+        assertTrue(new File(folder.getRoot(), "trust.snapshot.key").delete());
+
+        assertEquals(-1, this.createSnapshot().restore(COUNTRIES, new TrustedListsCertificateSource()));
+    }
+
+    @Test
+    public void shouldNotRestoreSnapshotOfChangedTrustedLists() throws Exception {
+        TrustSnapshot snapshot = this.createSnapshot();
+        File trustedList = new File(folder.getRoot(), "tl-cache/sk.xml");
+        Files.write(trustedList.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        snapshot.store(COUNTRIES, new TrustedListsCertificateSource());
+
+        Files.write(trustedList.toPath(), "second".getBytes(StandardCharsets.UTF_8));
+        trustedList.setLastModified(trustedList.lastModified() + 1000);
+
+        assertEquals(-1, snapshot.restore(COUNTRIES, new TrustedListsCertificateSource()));
+    }
+
+    private TrustSnapshot createSnapshot() {
+        File tlCacheDirectory = new File(folder.getRoot(), "tl-cache");
+        tlCacheDirectory.mkdirs();
+
+        return new TrustSnapshot(new File(folder.getRoot(), "trust.snapshot"), tlCacheDirectory,
+                TimeUnit.HOURS.toMillis(1));
+    }
+}